@@ -0,0 +1,91 @@
+package com.charlyghislain.keycloak.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Base64-encodes a wrapped stream on the fly, one block at a time, so that the encoded payload never needs to be
+ * held in memory.
+ */
+public class Base64EncodingInputStream extends InputStream {
+
+    // Multiple of 3 so that no padding is emitted before the last block
+    private static final int SOURCE_BLOCK_SIZE = 3 * 4096;
+
+    private final InputStream source;
+    private final Base64.Encoder encoder = Base64.getEncoder();
+    private final byte[] sourceBlock = new byte[SOURCE_BLOCK_SIZE];
+    private final byte[] encodedBlock = new byte[SOURCE_BLOCK_SIZE / 3 * 4];
+    private int encodedLength;
+    private int encodedPosition;
+    private long sourceBytesRead;
+    private long encodeNanos;
+    private boolean sourceExhausted;
+
+    public Base64EncodingInputStream(InputStream source) {
+        this.source = source;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillEncodedBlock()) {
+            return -1;
+        }
+        return encodedBlock[encodedPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillEncodedBlock()) {
+            return -1;
+        }
+        int count = Math.min(len, encodedLength - encodedPosition);
+        System.arraycopy(encodedBlock, encodedPosition, b, off, count);
+        encodedPosition += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    public long getSourceBytesRead() {
+        return sourceBytesRead;
+    }
+
+    /**
+     * @return the time spent encoding, excluding the time spent reading the wrapped stream.
+     */
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    private boolean fillEncodedBlock() throws IOException {
+        if (encodedPosition < encodedLength) {
+            return true;
+        }
+        if (sourceExhausted) {
+            return false;
+        }
+        int read = source.readNBytes(sourceBlock, 0, SOURCE_BLOCK_SIZE);
+        if (read < SOURCE_BLOCK_SIZE) {
+            sourceExhausted = true;
+        }
+        if (read == 0) {
+            return false;
+        }
+        sourceBytesRead += read;
+        byte[] input = read == SOURCE_BLOCK_SIZE ? sourceBlock : Arrays.copyOf(sourceBlock, read);
+        long encodeStart = System.nanoTime();
+        encodedLength = encoder.encode(input, encodedBlock);
+        encodeNanos += System.nanoTime() - encodeStart;
+        encodedPosition = 0;
+        return true;
+    }
+}
@@ -0,0 +1,175 @@
+package com.charlyghislain.keycloak.export;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Training run used to dump an AppCDS archive at image build time.
+ * <p>
+ * Runs actual exports, through the same code paths as a cronjob run, against an in-process stub of the keycloak and
+ * kubernetes apis, so that the classes they load end up in the archive. Both secret writers and the export cache
+ * are exercised. Fails if any of the exports fails, so that a stale training does not go unnoticed.
+ */
+class CdsTraining {
+
+    private static final String REALM = "training";
+    private static final String NAMESPACE = "training";
+    private static final String KEYCLOAK_PATH = "/auth/";
+    private static final String SECRETS_PATH = "/api/v1/namespaces/" + NAMESPACE + "/secrets";
+
+    private final Map<String, String> secrets = new ConcurrentHashMap<>();
+
+    static void run() {
+        Path trainingPath = null;
+        HttpServer server = null;
+        try {
+            trainingPath = Files.createTempDirectory("cds-training");
+            Path serviceAccountPath = Files.createDirectory(trainingPath.resolve("serviceaccount"));
+            Files.writeString(serviceAccountPath.resolve(KeycloakRealmExportConfigFactory.SERVICE_ACCOUNT_TOKEN_FILE_NAME), "training");
+
+            CdsTraining training = new CdsTraining();
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/", training::handle);
+            server.start();
+            String serverUri = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+
+            Map<String, String> properties = new HashMap<>();
+            properties.put(ConfigurationProperty.REALM_NAME.getPropertyName(), REALM);
+            properties.put(ConfigurationProperty.KEYCLOAK_API_URI.getPropertyName(), serverUri + KEYCLOAK_PATH);
+            properties.put(ConfigurationProperty.ADMIN_USERNAME.getPropertyName(), "training");
+            properties.put(ConfigurationProperty.ADMIN_PASSWORD.getPropertyName(), "training");
+            properties.put(ConfigurationProperty.EXPORT_USERS.getPropertyName(), "true");
+            properties.put(ConfigurationProperty.SECRET_NAMESPACE.getPropertyName(), NAMESPACE);
+            properties.put(ConfigurationProperty.SECRET_LABELS.getPropertyName(), "app:training");
+            properties.put(ConfigurationProperty.SECRET_ANNOTATIONS.getPropertyName(), "example.com/training:training");
+            properties.put(ConfigurationProperty.KUBERNETES_API_URI.getPropertyName(), serverUri);
+            properties.put(ConfigurationProperty.KUBERNETES_SERVICE_ACCOUNT_PATH.getPropertyName(), serviceAccountPath.toString());
+            properties.put(ConfigurationProperty.EXPORT_CACHE_PATH.getPropertyName(), trainingPath.resolve("cache").toString());
+            properties.put(ConfigurationProperty.REPORT_PATH.getPropertyName(), trainingPath.resolve("report.json").toString());
+            properties.put(ConfigurationProperty.REPORT_SECRET_NAME.getPropertyName(), "training-report");
+
+            // Exported then persisted using client-java
+            properties.put(ConfigurationProperty.SECRET_WRITER.getPropertyName(), SecretWriterType.CLIENT_JAVA.getPropertyValue());
+            runExport(properties, RealmExportOutcome.EXPORTED);
+            // Persisted again from the cache using the http writer, the secret being gone
+            training.secrets.clear();
+            properties.put(ConfigurationProperty.SECRET_WRITER.getPropertyName(), SecretWriterType.HTTP.getPropertyValue());
+            runExport(properties, RealmExportOutcome.CACHED);
+            runExport(properties, RealmExportOutcome.UNCHANGED);
+        } catch (IOException e) {
+            throw new RuntimeException("Training run failed", e);
+        } finally {
+            if (server != null) {
+                server.stop(0);
+            }
+            deleteDirectory(trainingPath);
+        }
+    }
+
+    private static void runExport(Map<String, String> properties, RealmExportOutcome expectedOutcome) {
+        RunReport runReport = KeycloakRealmExporter.run(properties);
+        boolean expected = runReport.getRealmReports().stream()
+                .allMatch(r -> r.getOutcome() == expectedOutcome);
+        if (!expected) {
+            throw new RuntimeException("Training run failed, expected " + expectedOutcome + ": " + runReport.toJson());
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String realmPath = KEYCLOAK_PATH + "realms/" + REALM;
+            String adminRealmPath = KEYCLOAK_PATH + "admin/realms/" + REALM;
+            String secretName = path.startsWith(SECRETS_PATH + "/") ? path.substring(SECRETS_PATH.length() + 1) : null;
+
+            if (method.equals("POST") && path.equals(KEYCLOAK_PATH + "realms/master/protocol/openid-connect/token")) {
+                respond(exchange, 200, "{\"access_token\":\"training\",\"token_type\":\"bearer\",\"expires_in\":60}");
+            } else if (method.equals("GET") && path.equals(realmPath + "/importexport/realm")) {
+                respond(exchange, 200, createRealmJson());
+            } else if (method.equals("GET") && path.equals(adminRealmPath)) {
+                respond(exchange, 200, "{\"realm\":\"" + REALM + "\",\"adminEventsEnabled\":true,\"eventsEnabled\":true,\"enabledEventTypes\":[]}");
+            } else if (method.equals("GET") && path.equals(adminRealmPath + "/users/count")) {
+                respond(exchange, 200, "1");
+            } else if (method.equals("GET") && path.startsWith(adminRealmPath + "/")) {
+                // Events, admin events and components
+                respond(exchange, 200, "[]");
+            } else if (method.equals("POST") && path.equals(SECRETS_PATH)) {
+                respond(exchange, 201, storeSecret(requestBody));
+            } else if (method.equals("PUT") && secretName != null) {
+                respond(exchange, 200, storeSecret(requestBody));
+            } else if (method.equals("GET") && secretName != null && secrets.containsKey(secretName)) {
+                respond(exchange, 200, secrets.get(secretName));
+            } else {
+                respond(exchange, 404, "{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"status\":\"Failure\",\"reason\":\"NotFound\",\"code\":404}");
+            }
+        }
+    }
+
+    private String storeSecret(String secretJson) {
+        JsonObject secretObject = Json.createReader(new StringReader(secretJson)).readObject();
+        String secretName = secretObject.getJsonObject("metadata").getString("name");
+        secrets.put(secretName, secretJson);
+        return secretJson;
+    }
+
+    private static String createRealmJson() {
+        // Large enough to span multiple encoded blocks
+        JsonArrayBuilder clientsBuilder = Json.createArrayBuilder();
+        for (int i = 0; i < 200; i++) {
+            clientsBuilder.add(Json.createObjectBuilder()
+                    .add("clientId", "training-client-" + i)
+                    .add("enabled", true)
+                    .add("redirectUris", Json.createArrayBuilder().add("https://training.example.com/" + i + "/*")));
+        }
+        return Json.createObjectBuilder()
+                .add("realm", REALM)
+                .add("enabled", true)
+                .add("clients", clientsBuilder)
+                .add("users", Json.createArrayBuilder()
+                        .add(Json.createObjectBuilder().add("username", "training")))
+                .build()
+                .toString();
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("content-type", "application/json");
+        exchange.sendResponseHeaders(statusCode, bodyBytes.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bodyBytes);
+        }
+    }
+
+    private static void deleteDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            // Only a temporary directory left behind
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.charlyghislain.keycloak.export;
 import lombok.Getter;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -12,7 +13,7 @@ public enum ConfigurationProperty {
     DEBUG("debug", "Debug output"),
     REALM_NAME("realmName", "The name of a single realm"),
     REALM_NAMES("realmNames", "A comma-separated list of realm names"),
-    KEYCLOAK_API_URI("keycloakApiUri", "The keycloak uri, eg keycloak.namespace.cluster.local:8080/auth"),
+    KEYCLOAK_API_URI("keycloakApiUri", "The keycloak uri, eg http://keycloak.namespace.svc.cluster.local:8080/auth"),
     KEYCLOAK_TRUSTSTORE_PATH("keycloakTruststorePath", "The path to a truststore when reaching keycloak over tls"),
     KEYCLOAK_TRUSTSTORE_PASSWORD("keycloakTruststorePassword", "The password to the keycloak truststore"),
     KEYCLOAK_HOST_HEADER("keycloakHostHeader", "The keycloak host header. This must match the token issuer, and is required if the api uri is not a public uri"),
@@ -23,10 +24,24 @@ public enum ConfigurationProperty {
     SECRET_NAMESPACE("secretNamespace", "The namespace into which to create/update the secret containing the exported data. The service account running this will need access to read,create,update secrets in that namespace."),
     SECRET_NAME_PATTERN("secretNamePattern", "A pattern used to build the secret name. {0} will be replaced with the realm name. {1} will be replaced with the iso local date. Defaults to '" + KeycloakRealmExportConfigFactory.DEFAULT_SECRET_NAME_PATTERN + ""),
     SECRET_KEY_PATTERN("secretKeyPattern", "A pattern used to build the secret key. {0} will be replaced with the realm nameDefaults to '" + KeycloakRealmExportConfigFactory.DEFAULT_SECRET_KEY_PATTERN + "'"),
-    SECRET_LABELS("secretLabels", "A comma-separated list of key:value labels to apply on created secrets"),
-    SECRET_ANNOTATIONS("secretAnnotations", "A comma-separated list of key:value annotations to apply on created secrets"),
+    SECRET_LABELS("secretLabels", "A comma-separated list of key:value (or key=value) labels to apply on created secrets"),
+    SECRET_ANNOTATIONS("secretAnnotations", "A comma-separated list of key:value (or key=value) annotations to apply on created secrets. Values may contain ':' or '='"),
+    KUBERNETES_API_URI("kubernetesApiUri", "The kubernetes api server uri. Defaults to https://$KUBERNETES_SERVICE_HOST:$KUBERNETES_SERVICE_PORT when running in cluster"),
+    KUBERNETES_SERVICE_ACCOUNT_PATH("kubernetesServiceAccountPath", "The directory holding the service account token, and the api server ca.crt when reached over https. Defaults to '" + KeycloakRealmExportConfigFactory.DEFAULT_SERVICE_ACCOUNT_PATH + "'"),
+    SECRET_WRITER("secretWriter", "The implementation used to write secrets. 'client-java' (default) uses the kubernetes java client, 'http' streams the secret to the api server using the jdk http client."),
+    EXPORT_CACHE_PATH("exportCachePath", "A directory, usually on a persistent volume, in which exports are cached. When set, realms are only exported again once their fingerprint changed or their cached export is stale. Requires admin events to be enabled on the realm, and events as well when users are exported."),
+    EXPORT_CACHE_MAX_AGE("exportCacheMaxAge", "The iso-8601 duration after which a cached export is stale and gets exported again. Defaults to '" + KeycloakRealmExportConfigFactory.DEFAULT_EXPORT_CACHE_MAX_AGE + "'"),
+    EXPORT_CACHE_MAX_SIZE("exportCacheMaxSize", "The maximum size of the cache in bytes. Least recently used entries are evicted beyond it. Unbounded by default."),
+    REPORT_STDOUT("reportStdout", "Whether to write the json run report, with the timing breakdown of each realm, to stdout."),
+    REPORT_PATH("reportPath", "A file into which to write the json run report."),
+    REPORT_SECRET_NAME("reportSecretName", "The name of a secret, in the secret namespace, into which to write the json run report in the '" + KeycloakRealmExporter.REPORT_SECRET_KEY + "' key."),
+    CDS_TRAINING("cdsTraining", "Exports a realm against in-process stubs of the keycloak and kubernetes apis, then exits. Used to create a class data sharing archive when building the image."),
     ;
 
+    private static final Set<String> ALL_PROPERTY_NAMES = Collections.unmodifiableSet(Arrays.stream(ConfigurationProperty.values())
+            .map(ConfigurationProperty::getPropertyName)
+            .collect(Collectors.toSet()));
+
     @Getter
     private final String propertyName;
     @Getter
@@ -38,8 +53,6 @@ public enum ConfigurationProperty {
     }
 
     public static Set<String> getAllPropertyNames() {
-        return Arrays.stream(ConfigurationProperty.values())
-                .map(ConfigurationProperty::getPropertyName)
-                .collect(Collectors.toSet());
+        return ALL_PROPERTY_NAMES;
     }
 }
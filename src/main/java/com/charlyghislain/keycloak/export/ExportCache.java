@@ -0,0 +1,262 @@
+package com.charlyghislain.keycloak.export;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local cache of realm exports, keyed by realm, usually stored on a persistent volume.
+ * <p>
+ * Each entry holds the exported data along with the realm fingerprint at export time, so that a full export can be
+ * skipped while the realm is unchanged. Entries older than the max age are considered stale and exported again.
+ * The least recently used entries are evicted once the cache grows beyond its max size.
+ */
+public class ExportCache {
+    private final static Logger LOG = Logger.getLogger(ExportCache.class.getName());
+
+    private static final String DATA_SUFFIX = ".json";
+    private static final String METADATA_SUFFIX = ".properties";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String FINGERPRINT_KEY = "fingerprint";
+    private static final String EXPORTED_AT_KEY = "exportedAt";
+    private static final String SECRET_NAME_KEY = "secretName";
+    private static final String SECRET_KEY_KEY = "secretKey";
+    private static final String SECRET_METADATA_HASH_KEY = "secretMetadataHash";
+
+    private final Path cachePath;
+    private final Duration maxAge;
+    private final Long maxSize;
+    private final String secretMetadataHash;
+
+    public ExportCache(KeycloakRealmExportConfig exportConfig) {
+        this.cachePath = exportConfig.getExportCachePath();
+        this.maxAge = exportConfig.getExportCacheMaxAge();
+        this.maxSize = exportConfig.getExportCacheMaxSize();
+        this.secretMetadataHash = createSecretMetadataHash(exportConfig);
+    }
+
+    /**
+     * @return the cached entry for this realm, if it was exported with the same fingerprint and is not stale.
+     */
+    public Optional<Entry> findEntry(String realm, String fingerprint) {
+        Path metadataPath = getMetadataPath(realm);
+        Path dataPath = getDataPath(realm);
+        if (!Files.isReadable(metadataPath) || !Files.isReadable(dataPath)) {
+            return Optional.empty();
+        }
+
+        Properties metadata = new Properties();
+        try (InputStream metadataStream = Files.newInputStream(metadataPath)) {
+            metadata.load(metadataStream);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to read cache entry at " + metadataPath, e);
+            return Optional.empty();
+        }
+
+        String cachedFingerprint = metadata.getProperty(FINGERPRINT_KEY);
+        Instant exportedAt;
+        try {
+            exportedAt = Optional.ofNullable(metadata.getProperty(EXPORTED_AT_KEY))
+                    .map(Instant::parse)
+                    .orElse(Instant.EPOCH);
+        } catch (DateTimeParseException e) {
+            LOG.log(Level.WARNING, "Invalid cache entry at " + metadataPath, e);
+            return Optional.empty();
+        }
+        if (!fingerprint.equals(cachedFingerprint)) {
+            LOG.log(Level.FINE, "Realm " + realm + " changed since " + exportedAt);
+            return Optional.empty();
+        }
+        if (exportedAt.plus(maxAge).isBefore(Instant.now())) {
+            LOG.log(Level.FINE, "Cached export of realm " + realm + " from " + exportedAt + " is stale");
+            return Optional.empty();
+        }
+
+        touch(dataPath);
+        Entry entry = new Entry(realm, cachedFingerprint, exportedAt, metadata.getProperty(SECRET_NAME_KEY),
+                metadata.getProperty(SECRET_KEY_KEY), metadata.getProperty(SECRET_METADATA_HASH_KEY), dataPath);
+        return Optional.of(entry);
+    }
+
+    /**
+     * Writes the realm data to a temporary file, to be committed using
+     * {@link #storeEntry(String, String, String, String, Path)} once persisted. The file is deleted if writing fails.
+     */
+    public Path writeTempData(String realm, InputStream data) throws IOException {
+        Files.createDirectories(cachePath);
+        Path tempPath = cachePath.resolve(getFileName(realm) + DATA_SUFFIX + TEMP_SUFFIX);
+        try (OutputStream outputStream = Files.newOutputStream(tempPath)) {
+            data.transferTo(outputStream);
+        } catch (IOException | RuntimeException e) {
+            deleteTempData(tempPath);
+            throw e;
+        }
+        return tempPath;
+    }
+
+    public void deleteTempData(Path tempPath) {
+        try {
+            Files.deleteIfExists(tempPath);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to delete " + tempPath, e);
+        }
+    }
+
+    public void storeEntry(String realm, String fingerprint, String secretName, String secretKey, Path tempDataPath) throws IOException {
+        Path dataPath = getDataPath(realm);
+        Files.move(tempDataPath, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writeMetadata(realm, fingerprint, Instant.now(), secretName, secretKey);
+        evictEntries(dataPath);
+    }
+
+    /**
+     * Records that the cached data was persisted again, into a secret with the current labels and annotations.
+     */
+    public void updateSecret(Entry entry, String secretName, String secretKey) throws IOException {
+        writeMetadata(entry.getRealm(), entry.getFingerprint(), entry.getExportedAt(), secretName, secretKey);
+    }
+
+    /**
+     * @return whether the cached data was last persisted into this secret key, with the current labels and annotations.
+     */
+    public boolean isPersistedAs(Entry entry, String secretName, String secretKey) {
+        return secretName.equals(entry.getSecretName())
+                && secretKey.equals(entry.getSecretKey())
+                && secretMetadataHash.equals(entry.getSecretMetadataHash());
+    }
+
+    private void writeMetadata(String realm, String fingerprint, Instant exportedAt, String secretName, String secretKey) throws IOException {
+        Properties metadata = new Properties();
+        metadata.setProperty(FINGERPRINT_KEY, fingerprint);
+        metadata.setProperty(EXPORTED_AT_KEY, exportedAt.toString());
+        metadata.setProperty(SECRET_NAME_KEY, secretName);
+        metadata.setProperty(SECRET_KEY_KEY, secretKey);
+        metadata.setProperty(SECRET_METADATA_HASH_KEY, secretMetadataHash);
+
+        Path metadataPath = getMetadataPath(realm);
+        Path tempMetadataPath = cachePath.resolve(metadataPath.getFileName() + TEMP_SUFFIX);
+        try (OutputStream metadataStream = Files.newOutputStream(tempMetadataPath)) {
+            metadata.store(metadataStream, realm);
+        }
+        Files.move(tempMetadataPath, metadataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void evictEntries(Path retainedDataPath) throws IOException {
+        if (maxSize == null) {
+            return;
+        }
+        List<Path> dataPaths;
+        try (Stream<Path> cachedPaths = Files.list(cachePath)) {
+            dataPaths = cachedPaths
+                    .filter(p -> p.getFileName().toString().endsWith(DATA_SUFFIX))
+                    .sorted(Comparator.comparing(this::getLastModifiedTime))
+                    .collect(Collectors.toList());
+        }
+        long totalSize = 0;
+        for (Path dataPath : dataPaths) {
+            totalSize += Files.size(dataPath);
+        }
+        for (Path dataPath : dataPaths) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            if (dataPath.equals(retainedDataPath)) {
+                continue;
+            }
+            totalSize -= Files.size(dataPath);
+            String dataFileName = dataPath.getFileName().toString();
+            String fileName = dataFileName.substring(0, dataFileName.length() - DATA_SUFFIX.length());
+            Files.deleteIfExists(cachePath.resolve(fileName + METADATA_SUFFIX));
+            Files.deleteIfExists(dataPath);
+            LOG.log(Level.FINE, "Evicted cache entry " + fileName);
+        }
+    }
+
+    private FileTime getLastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Unable to touch " + path, e);
+        }
+    }
+
+    private Path getDataPath(String realm) {
+        return cachePath.resolve(getFileName(realm) + DATA_SUFFIX);
+    }
+
+    private Path getMetadataPath(String realm) {
+        return cachePath.resolve(getFileName(realm) + METADATA_SUFFIX);
+    }
+
+    private String getFileName(String realm) {
+        return URLEncoder.encode(realm, StandardCharsets.UTF_8);
+    }
+
+    private static String createSecretMetadataHash(KeycloakRealmExportConfig exportConfig) {
+        // Sorted, so that the hash does not depend on the configuration order
+        String secretMetadata = "labels=" + new TreeMap<>(Optional.ofNullable(exportConfig.getSecretLabels()).orElseGet(Map::of))
+                + "\nannotations=" + new TreeMap<>(Optional.ofNullable(exportConfig.getSecretAnnotations()).orElseGet(Map::of));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(secretMetadata.getBytes(StandardCharsets.UTF_8));
+            return String.format("%064x", new BigInteger(1, hash));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Unable to hash secret metadata", e);
+        }
+    }
+
+    @Getter
+    public static class Entry {
+        private final String realm;
+        private final String fingerprint;
+        private final Instant exportedAt;
+        private final String secretName;
+        private final String secretKey;
+        private final String secretMetadataHash;
+        private final Path dataPath;
+
+        Entry(String realm, String fingerprint, Instant exportedAt, String secretName, String secretKey,
+              String secretMetadataHash, Path dataPath) {
+            this.realm = realm;
+            this.fingerprint = fingerprint;
+            this.exportedAt = exportedAt;
+            this.secretName = secretName;
+            this.secretKey = secretKey;
+            this.secretMetadataHash = secretMetadataHash;
+            this.dataPath = dataPath;
+        }
+    }
+}
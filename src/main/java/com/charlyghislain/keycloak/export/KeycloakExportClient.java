@@ -1,8 +1,10 @@
 package com.charlyghislain.keycloak.export;
 
 import jakarta.json.Json;
+import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
@@ -11,6 +13,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
+import java.math.BigInteger;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpHeaders;
@@ -22,17 +25,27 @@ import java.nio.file.Path;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class KeycloakExportClient {
     private final static Logger LOG = Logger.getLogger(KeycloakExportClient.class.getName());
 
+    // Events emitted when users register, or update their credentials or profile
+    private static final Set<String> USER_CHANGE_EVENT_TYPES = Set.of(
+            "REGISTER", "UPDATE_PROFILE", "UPDATE_EMAIL", "VERIFY_EMAIL",
+            "UPDATE_PASSWORD", "UPDATE_TOTP", "REMOVE_TOTP"
+    );
+    private static final String USER_STORAGE_PROVIDER_TYPE = "org.keycloak.storage.UserStorageProvider";
+
     private final KeycloakRealmExportConfig exportConfig;
     private final HttpClient httpClient;
     private String accessToken;
@@ -77,6 +90,114 @@ public class KeycloakExportClient {
         return realmData;
     }
 
+    /**
+     * Computes a fingerprint of the realm from cheap admin api calls: the realm representation and the latest admin
+     * event, plus the user count and the latest user event when users are exported.
+     *
+     * @return the fingerprint, or empty when changes could not be detected: when admin events are disabled, as
+     * changes to clients, roles, groups, etc would go unnoticed, or when users are exported but events are disabled,
+     * restricted to other event types, or users are federated, as user changes would go unnoticed.
+     */
+    public Optional<String> fetchRealmFingerprint(String realmName) throws IOException, InterruptedException {
+        String realmPath = "admin/realms/" + realmName;
+        String realmJson = getAdminResource(realmPath);
+        JsonObject realmObject = Json.createReader(new StringReader(realmJson)).readObject();
+        if (!realmObject.getBoolean("adminEventsEnabled", false)) {
+            LOG.log(Level.FINE, "Admin events disabled for realm " + realmName + ", unable to detect changes");
+            return Optional.empty();
+        }
+        if (exportConfig.isExportUsers() && !realmObject.getBoolean("eventsEnabled", false)) {
+            LOG.log(Level.FINE, "Events disabled for realm " + realmName + ", unable to detect user changes");
+            return Optional.empty();
+        }
+        if (exportConfig.isExportUsers() && !isUserChangeEventsEnabled(realmObject)) {
+            LOG.log(Level.FINE, "Credential and profile events not all enabled for realm " + realmName + ", unable to detect user changes");
+            return Optional.empty();
+        }
+        if (exportConfig.isExportUsers() && hasUserStorageProviders(realmPath)) {
+            // Federation syncs and imports do not produce any event
+            LOG.log(Level.FINE, "User federation configured for realm " + realmName + ", unable to detect user changes");
+            return Optional.empty();
+        }
+
+        StringBuilder fingerprintData = new StringBuilder(realmJson);
+        // Keycloak returns the most recent events first
+        String adminEventsJson = getAdminResource(realmPath + "/admin-events?first=0&max=1");
+        JsonArray adminEventsArray = Json.createReader(new StringReader(adminEventsJson)).readArray();
+        fingerprintData.append('\n').append(adminEventsArray);
+        if (exportConfig.isExportUsers()) {
+            String userCount = getAdminResource(realmPath + "/users/count");
+            fingerprintData.append('\n').append(userCount);
+            // Any user event, logins included: conservative, but credential and profile updates are all covered
+            String eventsJson = getAdminResource(realmPath + "/events?first=0&max=1");
+            JsonArray eventsArray = Json.createReader(new StringReader(eventsJson)).readArray();
+            fingerprintData.append('\n').append(eventsArray);
+        }
+        return Optional.of(sha256Hex(fingerprintData.toString()));
+    }
+
+    /**
+     * An empty list of enabled event types means all of them are enabled.
+     */
+    private boolean isUserChangeEventsEnabled(JsonObject realmObject) {
+        JsonArray enabledEventTypesArray = realmObject.getJsonArray("enabledEventTypes");
+        if (enabledEventTypesArray == null || enabledEventTypesArray.isEmpty()) {
+            return true;
+        }
+        Set<String> enabledEventTypes = enabledEventTypesArray.getValuesAs(JsonString.class).stream()
+                .map(JsonString::getString)
+                .collect(Collectors.toSet());
+        return enabledEventTypes.containsAll(USER_CHANGE_EVENT_TYPES);
+    }
+
+    private boolean hasUserStorageProviders(String realmPath) throws IOException, InterruptedException {
+        String componentsJson = getAdminResource(realmPath + "/components?type=" + USER_STORAGE_PROVIDER_TYPE);
+        JsonArray componentsArray = Json.createReader(new StringReader(componentsJson)).readArray();
+        return !componentsArray.isEmpty();
+    }
+
+    private static String sha256Hex(String data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(data.getBytes(StandardCharsets.UTF_8));
+            return String.format("%064x", new BigInteger(1, hash));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Unable to compute realm fingerprint", e);
+        }
+    }
+
+    private String getAdminResource(String path) throws IOException, InterruptedException {
+        String accessToken = getAccessToken();
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .GET()
+                .uri(exportConfig.getKeycloakApiUri().resolve(path))
+                .setHeader("accept", "application/json")
+                .setHeader("authorization", "bearer " + accessToken)
+                .setHeader("host", exportConfig.getKeycloakHostname())
+                .build();
+        if (exportConfig.isDebug()) {
+            LOG.log(Level.FINER, "> " + request.method() + " " + request.uri());
+        }
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        this.debugResponse(response);
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Unable to get " + path + ": http " + response.statusCode() + " : " + response.body());
+        }
+        return response.body();
+    }
+
+    /**
+     * Obtains an admin access token, unless one was already obtained.
+     *
+     * @return whether a token was requested from keycloak
+     */
+    public boolean authenticate() throws IOException, InterruptedException {
+        boolean tokenRequested = this.accessToken == null;
+        getAccessToken();
+        return tokenRequested;
+    }
+
     private String getAccessToken() throws IOException, InterruptedException {
         if (this.accessToken != null) {
             return this.accessToken;
@@ -6,6 +6,7 @@ import lombok.ToString;
 
 import java.net.URI;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Set;
 
@@ -28,6 +29,17 @@ public class KeycloakRealmExportConfig {
     private String secretKeyPattern;
     private Map<String, String> secretLabels;
     private Map<String, String> secretAnnotations;
+    private SecretWriterType secretWriterType;
+    private URI kubernetesApiUri;
+    private Path kubernetesServiceAccountPath;
+
+    private Path exportCachePath;
+    private Duration exportCacheMaxAge;
+    private Long exportCacheMaxSize;
+
+    private boolean reportStdout;
+    private Path reportPath;
+    private String reportSecretName;
 
     private boolean debug;
 
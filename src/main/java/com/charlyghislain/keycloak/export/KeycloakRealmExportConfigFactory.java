@@ -1,21 +1,29 @@
 package com.charlyghislain.keycloak.export;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class KeycloakRealmExportConfigFactory {
     private final static Logger LOG = Logger.getLogger(KeycloakRealmExportConfigFactory.class.getName());
@@ -23,6 +31,15 @@ public class KeycloakRealmExportConfigFactory {
     public static final String SECRETS_PATH = "/var/run/secrets";
     public static final String DEFAULT_SECRET_NAME_PATTERN = "realm-{0}-json-export-{1}-secret";
     public static final String DEFAULT_SECRET_KEY_PATTERN = "{0}.json";
+    public static final String DEFAULT_EXPORT_CACHE_MAX_AGE = "P1D";
+    public static final String DEFAULT_SERVICE_ACCOUNT_PATH = "/var/run/secrets/kubernetes.io/serviceaccount";
+    public static final String SERVICE_ACCOUNT_TOKEN_FILE_NAME = "token";
+    public static final String SERVICE_ACCOUNT_CA_FILE_NAME = "ca.crt";
+
+    private static final Pattern DNS_LABEL_REGEX = Pattern.compile("[a-z0-9]([-a-z0-9]*[a-z0-9])?");
+    private static final Pattern DNS_SUBDOMAIN_REGEX = Pattern.compile("[a-z0-9]([-a-z0-9]*[a-z0-9])?(\\.[a-z0-9]([-a-z0-9]*[a-z0-9])?)*");
+    private static final Pattern LABEL_VALUE_REGEX = Pattern.compile("[A-Za-z0-9]([-A-Za-z0-9_.]*[A-Za-z0-9])?");
+    private static final Pattern SECRET_KEY_REGEX = Pattern.compile("[-._a-zA-Z0-9]+");
 
     public static Map<String, String> resolvePropertiesMap(String[] args) {
         Map<String, String> properties = new HashMap<>();
@@ -33,6 +50,10 @@ public class KeycloakRealmExportConfigFactory {
     }
 
     public static KeycloakRealmExportConfig createConfig(Map<String, String> properties) {
+        return createConfig(properties, System.getenv());
+    }
+
+    static KeycloakRealmExportConfig createConfig(Map<String, String> properties, Map<String, String> environment) {
         KeycloakRealmExportConfig exportConfig = new KeycloakRealmExportConfig();
 
         Set<String> realms = new HashSet<>();
@@ -55,10 +76,14 @@ public class KeycloakRealmExportConfigFactory {
                 .orElseThrow(() -> new RuntimeException("No keycloak api uri configured"));
         URI apiUri;
         try {
-            apiUri = new URI(keycloakApiUri);
+            // Relative paths are resolved against it, the last path segment would be dropped without a trailing slash
+            apiUri = new URI(keycloakApiUri.endsWith("/") ? keycloakApiUri : keycloakApiUri + "/");
         } catch (URISyntaxException e) {
             throw new RuntimeException("Invalid keycloak api uri", e);
         }
+        if (!"http".equalsIgnoreCase(apiUri.getScheme()) && !"https".equalsIgnoreCase(apiUri.getScheme())) {
+            throw new RuntimeException("Invalid keycloak api uri " + keycloakApiUri + ": expected an http or https uri");
+        }
         exportConfig.setKeycloakApiUri(apiUri);
 
         Optional<Path> keycloakTruststorePathOptional = Optional.ofNullable(properties.get(ConfigurationProperty.KEYCLOAK_TRUSTSTORE_PATH.getPropertyName()))
@@ -69,13 +94,16 @@ public class KeycloakRealmExportConfigFactory {
             if (Files.exists(trustStorePath) && Files.isReadable(trustStorePath)) {
                 exportConfig.setKeycloakTrustStorePath(trustStorePath);
             } else {
-                throw new RuntimeException("Truststore at " + trustStorePath + "not readable");
+                throw new RuntimeException("Truststore at " + trustStorePath + " not readable");
             }
         }
 
         Optional.ofNullable(properties.get(ConfigurationProperty.KEYCLOAK_TRUSTSTORE_PASSWORD.getPropertyName()))
                 .filter(s -> !s.isBlank())
                 .ifPresent(exportConfig::setKeycloakTrustStorePassword);
+        if (exportConfig.getKeycloakTrustStorePath() != null && exportConfig.getKeycloakTrustStorePassword() == null) {
+            throw new RuntimeException("No truststore password provided");
+        }
 
         String host = Optional.ofNullable(properties.get(ConfigurationProperty.KEYCLOAK_HOST_HEADER.getPropertyName()))
                 .orElseGet(apiUri::getHost);
@@ -92,7 +120,11 @@ public class KeycloakRealmExportConfigFactory {
         exportConfig.setAdminPassword(adminPassword);
 
         String secretnamespace = Optional.ofNullable(properties.get(ConfigurationProperty.SECRET_NAMESPACE.getPropertyName()))
+                .filter(s -> !s.isBlank())
                 .orElseThrow(() -> new RuntimeException("No secret namespace configured"));
+        if (secretnamespace.length() > 63 || !DNS_LABEL_REGEX.matcher(secretnamespace).matches()) {
+            throw new RuntimeException("Invalid secret namespace " + secretnamespace + ": expected a lowercase dns label");
+        }
         exportConfig.setSecretNamespace(secretnamespace);
 
         String secretNamePattern = Optional.ofNullable(properties.get(ConfigurationProperty.SECRET_NAME_PATTERN.getPropertyName()))
@@ -103,30 +135,115 @@ public class KeycloakRealmExportConfigFactory {
                 .orElse(DEFAULT_SECRET_KEY_PATTERN);
         exportConfig.setSecretKeyPattern(secretKeyPattern);
 
+        // Fail before exporting anything rather than on the first realm with an invalid secret name
+        for (String realm : realms) {
+            String secretName = formatPattern(ConfigurationProperty.SECRET_NAME_PATTERN, () -> SecretWriter.createSecretName(exportConfig, realm));
+            validateSecretName(secretName);
+            String secretKey = formatPattern(ConfigurationProperty.SECRET_KEY_PATTERN, () -> SecretWriter.createSecretKey(exportConfig, realm));
+            if (!SECRET_KEY_REGEX.matcher(secretKey).matches()) {
+                throw new RuntimeException("Invalid secret key " + secretKey + " for realm " + realm);
+            }
+        }
+
         Map<String, String> labelsMap = Optional.ofNullable(properties.get(ConfigurationProperty.SECRET_LABELS.getPropertyName()))
-                .map(s -> s.split(","))
-                .stream()
-                .flatMap(Arrays::stream)
-                .map(p -> p.split(":"))
-                .filter(p -> p.length == 2 && !p[0].isBlank())
-                .collect(Collectors.toMap(
-                        p -> p[0].strip(),
-                        p -> p[1].strip()
-                ));
+                .map(s -> parseKeyValueList(ConfigurationProperty.SECRET_LABELS, s))
+                .orElseGet(Map::of);
+        labelsMap.forEach(KeycloakRealmExportConfigFactory::validateLabel);
         exportConfig.setSecretLabels(labelsMap);
 
         Map<String, String> annotationsMap = Optional.ofNullable(properties.get(ConfigurationProperty.SECRET_ANNOTATIONS.getPropertyName()))
-                .map(s -> s.split(","))
-                .stream()
-                .flatMap(Arrays::stream)
-                .map(p -> p.split(":"))
-                .filter(p -> p.length == 2 && !p[0].isBlank())
-                .collect(Collectors.toMap(
-                        p -> p[0].strip(),
-                        p -> p[1].strip()
-                ));
+                .map(s -> parseKeyValueList(ConfigurationProperty.SECRET_ANNOTATIONS, s))
+                .orElseGet(Map::of);
+        annotationsMap.keySet().forEach(k -> validateQualifiedName("annotation key", k));
         exportConfig.setSecretAnnotations(annotationsMap);
 
+        SecretWriterType secretWriterType = Optional.ofNullable(properties.get(ConfigurationProperty.SECRET_WRITER.getPropertyName()))
+                .filter(s -> !s.isBlank())
+                .map(s -> SecretWriterType.fromPropertyValue(s)
+                        .orElseThrow(() -> new RuntimeException("Invalid secret writer " + s)))
+                .orElse(SecretWriterType.CLIENT_JAVA);
+        exportConfig.setSecretWriterType(secretWriterType);
+
+        // Fail before exporting anything rather than when persisting the first realm
+        URI kubernetesApiUri = Optional.ofNullable(properties.get(ConfigurationProperty.KUBERNETES_API_URI.getPropertyName()))
+                .filter(s -> !s.isBlank())
+                .map(s -> {
+                    try {
+                        return new URI(s);
+                    } catch (URISyntaxException e) {
+                        throw new RuntimeException("Invalid kubernetes api uri " + s, e);
+                    }
+                })
+                .orElseGet(() -> createInClusterApiUri(environment));
+        if (!"http".equalsIgnoreCase(kubernetesApiUri.getScheme()) && !"https".equalsIgnoreCase(kubernetesApiUri.getScheme())) {
+            throw new RuntimeException("Invalid kubernetes api uri " + kubernetesApiUri + ": expected an http or https uri");
+        }
+        exportConfig.setKubernetesApiUri(kubernetesApiUri);
+
+        Path serviceAccountPath = Optional.ofNullable(properties.get(ConfigurationProperty.KUBERNETES_SERVICE_ACCOUNT_PATH.getPropertyName()))
+                .filter(s -> !s.isBlank())
+                .map(Paths::get)
+                .orElseGet(() -> Paths.get(DEFAULT_SERVICE_ACCOUNT_PATH));
+        validateReadableFile("Service account token", serviceAccountPath.resolve(SERVICE_ACCOUNT_TOKEN_FILE_NAME));
+        if ("https".equalsIgnoreCase(kubernetesApiUri.getScheme())) {
+            validateReadableFile("Service account CA", serviceAccountPath.resolve(SERVICE_ACCOUNT_CA_FILE_NAME));
+        }
+        exportConfig.setKubernetesServiceAccountPath(serviceAccountPath);
+
+        Optional.ofNullable(properties.get(ConfigurationProperty.EXPORT_CACHE_PATH.getPropertyName()))
+                .filter(s -> !s.isBlank())
+                .map(Paths::get)
+                .ifPresent(exportConfig::setExportCachePath);
+        Path exportCachePath = exportConfig.getExportCachePath();
+        if (exportCachePath != null && Files.exists(exportCachePath)
+                && (!Files.isDirectory(exportCachePath) || !Files.isWritable(exportCachePath))) {
+            throw new RuntimeException("Export cache path " + exportCachePath + " is not a writable directory");
+        }
+
+        String exportCacheMaxAge = Optional.ofNullable(properties.get(ConfigurationProperty.EXPORT_CACHE_MAX_AGE.getPropertyName()))
+                .filter(s -> !s.isBlank())
+                .orElse(DEFAULT_EXPORT_CACHE_MAX_AGE);
+        try {
+            exportConfig.setExportCacheMaxAge(Duration.parse(exportCacheMaxAge));
+        } catch (DateTimeParseException e) {
+            throw new RuntimeException("Invalid export cache max age " + exportCacheMaxAge, e);
+        }
+
+        Optional.ofNullable(properties.get(ConfigurationProperty.EXPORT_CACHE_MAX_SIZE.getPropertyName()))
+                .filter(s -> !s.isBlank())
+                .map(s -> {
+                    try {
+                        return Long.parseLong(s.strip());
+                    } catch (NumberFormatException e) {
+                        throw new RuntimeException("Invalid export cache max size " + s, e);
+                    }
+                })
+                .ifPresent(exportConfig::setExportCacheMaxSize);
+
+        boolean reportStdout = Optional.ofNullable(properties.get(ConfigurationProperty.REPORT_STDOUT.getPropertyName()))
+                .filter(s -> !s.isBlank())
+                .map(Boolean::parseBoolean)
+                .orElse(properties.containsKey(ConfigurationProperty.REPORT_STDOUT.getPropertyName()));
+        exportConfig.setReportStdout(reportStdout);
+
+        Optional.ofNullable(properties.get(ConfigurationProperty.REPORT_PATH.getPropertyName()))
+                .filter(s -> !s.isBlank())
+                .map(Paths::get)
+                .ifPresent(exportConfig::setReportPath);
+        Optional.ofNullable(exportConfig.getReportPath())
+                .map(Path::toAbsolutePath)
+                .map(Path::getParent)
+                .filter(p -> !Files.isDirectory(p))
+                .ifPresent(p -> {
+                    throw new RuntimeException("Report directory " + p + " does not exist");
+                });
+
+        Optional.ofNullable(properties.get(ConfigurationProperty.REPORT_SECRET_NAME.getPropertyName()))
+                .filter(s -> !s.isBlank())
+                .ifPresent(exportConfig::setReportSecretName);
+        Optional.ofNullable(exportConfig.getReportSecretName())
+                .ifPresent(KeycloakRealmExportConfigFactory::validateSecretName);
+
         boolean debug = Optional.ofNullable(properties.get(ConfigurationProperty.DEBUG.getPropertyName()))
                 .filter(s -> !s.isBlank())
                 .map(Boolean::parseBoolean)
@@ -143,15 +260,16 @@ public class KeycloakRealmExportConfigFactory {
     }
 
     private static void loadPropertiesFromArguments(Map<String, String> properties, String[] args) {
-        Arrays.stream(args).forEach(a -> loadPropertyFromArg(properties, a));
+        Set<String> allPropertyNames = ConfigurationProperty.getAllPropertyNames();
+        Arrays.stream(args).forEach(a -> loadPropertyFromArg(properties, allPropertyNames, a));
     }
 
-    private static void loadPropertyFromArg(Map<String, String> properties, String arg) {
-        String[] argParts = arg.split("=");
-        Set<String> allPropertyNames = ConfigurationProperty.getAllPropertyNames();
-        if (argParts.length == 2) {
-            String key = argParts[0];
-            String value = argParts[1];
+    private static void loadPropertyFromArg(Map<String, String> properties, Set<String> allPropertyNames, String arg) {
+        // Values may contain '=' themselves
+        int separatorIndex = arg.indexOf('=');
+        if (separatorIndex > 0) {
+            String key = arg.substring(0, separatorIndex);
+            String value = arg.substring(separatorIndex + 1);
             if (allPropertyNames.contains(key)) {
                 loadProperty(properties, key, value);
             }
@@ -161,27 +279,112 @@ public class KeycloakRealmExportConfigFactory {
     }
 
     private static void loadPropertiesFromSecrets(Map<String, String> properties) {
+        Path secretsPath = Paths.get(SECRETS_PATH);
+        if (!Files.isDirectory(secretsPath)) {
+            return;
+        }
+        // List the directory once rather than probing a path for each property
         Set<String> allPropertyNames = ConfigurationProperty.getAllPropertyNames();
-        allPropertyNames.forEach(k -> loadPropertySecret(properties, k));
-    }
-
-    private static void loadPropertySecret(Map<String, String> properties, String propName) {
-        Path secretPath = getSecretPath(propName);
-        if (Files.exists(secretPath) && Files.isReadable(secretPath)) {
-            try {
-                List<String> allLines = Files.readAllLines(secretPath);
-                if (allLines.size() > 0) {
-                    String secretLine = allLines.get(0);
-                    loadProperty(properties, propName, secretLine);
-                }
-            } catch (IOException e) {
-                LOG.log(Level.SEVERE, "Unable to loac secret at " + secretPath, e);
+        List<Path> secretPaths;
+        try (Stream<Path> secretPathStream = Files.list(secretsPath)) {
+            secretPaths = secretPathStream
+                    .filter(p -> allPropertyNames.contains(p.getFileName().toString()))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Unable to list secrets at " + secretsPath, e);
+            return;
+        }
+        secretPaths.forEach(p -> loadPropertySecret(properties, p));
+    }
+
+    private static void loadPropertySecret(Map<String, String> properties, Path secretPath) {
+        if (!Files.isRegularFile(secretPath) || !Files.isReadable(secretPath)) {
+            return;
+        }
+        String propName = secretPath.getFileName().toString();
+        try (BufferedReader secretReader = Files.newBufferedReader(secretPath)) {
+            String secretLine = secretReader.readLine();
+            loadProperty(properties, propName, secretLine);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Unable to load secret at " + secretPath, e);
+        }
+    }
+
+    /**
+     * Parses a comma-separated list of key:value or key=value entries. Only the first separator is considered,
+     * so that values may contain ':' or '='.
+     */
+    private static Map<String, String> parseKeyValueList(ConfigurationProperty property, String value) {
+        Map<String, String> valueMap = new LinkedHashMap<>();
+        for (String entry : value.split(",")) {
+            if (entry.isBlank()) {
+                continue;
             }
+            int separatorIndex = IntStream.of(entry.indexOf(':'), entry.indexOf('='))
+                    .filter(i -> i >= 0)
+                    .min()
+                    .orElseThrow(() -> new RuntimeException("Invalid " + property.getPropertyName() + " entry '" + entry + "': expected key:value"));
+            String entryKey = entry.substring(0, separatorIndex).strip();
+            String entryValue = entry.substring(separatorIndex + 1).strip();
+            if (entryKey.isEmpty()) {
+                throw new RuntimeException("Invalid " + property.getPropertyName() + " entry '" + entry + "': empty key");
+            }
+            valueMap.put(entryKey, entryValue);
+        }
+        return valueMap;
+    }
+
+    private static URI createInClusterApiUri(Map<String, String> environment) {
+        String host = Optional.ofNullable(environment.get("KUBERNETES_SERVICE_HOST"))
+                .filter(s -> !s.isBlank())
+                .orElseThrow(() -> new RuntimeException("KUBERNETES_SERVICE_HOST not set, not running in cluster? "
+                        + "Configure " + ConfigurationProperty.KUBERNETES_API_URI.getPropertyName() + " otherwise"));
+        String port = Optional.ofNullable(environment.get("KUBERNETES_SERVICE_PORT"))
+                .filter(s -> !s.isBlank())
+                .orElse("443");
+        String uriHost = host.contains(":") ? "[" + host + "]" : host;
+        try {
+            return new URI("https://" + uriHost + ":" + port);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException("Invalid kubernetes service host " + host + " or port " + port, e);
+        }
+    }
+
+    private static void validateReadableFile(String description, Path path) {
+        if (!Files.isRegularFile(path) || !Files.isReadable(path)) {
+            throw new RuntimeException(description + " at " + path + " not readable, not running in cluster?");
+        }
+    }
+
+    private static String formatPattern(ConfigurationProperty property, Supplier<String> formatter) {
+        try {
+            return formatter.get();
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid " + property.getPropertyName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void validateSecretName(String secretName) {
+        if (secretName.length() > 253 || !DNS_SUBDOMAIN_REGEX.matcher(secretName).matches()) {
+            throw new RuntimeException("Invalid secret name " + secretName + ": expected a lowercase dns subdomain name");
         }
     }
 
-    private static Path getSecretPath(String propName) {
-        return Paths.get(SECRETS_PATH).resolve(propName);
+    private static void validateLabel(String key, String value) {
+        validateQualifiedName("label key", key);
+        if (value.length() > 63 || !(value.isEmpty() || LABEL_VALUE_REGEX.matcher(value).matches())) {
+            throw new RuntimeException("Invalid label value " + value + " for key " + key);
+        }
+    }
+
+    private static void validateQualifiedName(String description, String qualifiedName) {
+        int prefixIndex = qualifiedName.lastIndexOf('/');
+        String name = qualifiedName.substring(prefixIndex + 1);
+        boolean validName = name.length() <= 63 && LABEL_VALUE_REGEX.matcher(name).matches();
+        boolean validPrefix = prefixIndex < 0 || DNS_SUBDOMAIN_REGEX.matcher(qualifiedName.substring(0, prefixIndex)).matches();
+        if (!validName || !validPrefix) {
+            throw new RuntimeException("Invalid " + description + " " + qualifiedName);
+        }
     }
 
     private static void loadPropertiesFromEnv(Map<String, String> properties) {
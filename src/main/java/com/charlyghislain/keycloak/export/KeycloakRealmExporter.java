@@ -1,17 +1,30 @@
 package com.charlyghislain.keycloak.export;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class KeycloakRealmExporter {
 
     private final static Logger LOG = Logger.getLogger(KeycloakRealmExporter.class.getName());
 
+    public static final String REPORT_SECRET_KEY = "report.json";
+
     public static void main(String[] args) {
 
         Map<String, String> configurationProperties = KeycloakRealmExportConfigFactory.resolvePropertiesMap(args);
@@ -19,7 +32,19 @@ public class KeycloakRealmExporter {
             printHelp();
             System.exit(0);
         }
+        if (configurationProperties.containsKey(ConfigurationProperty.CDS_TRAINING.getPropertyName())) {
+            CdsTraining.run();
+            System.exit(0);
+        }
+
+        RunReport runReport = run(configurationProperties);
+        System.exit(runReport.hasFailure() ? 1 : 0);
+    }
 
+    /**
+     * Exports and persists each configured realm, then writes the run report.
+     */
+    static RunReport run(Map<String, String> configurationProperties) {
         KeycloakRealmExportConfig config = KeycloakRealmExportConfigFactory.createConfig(configurationProperties);
         tryReadLoggingConfig(config);
         if (config.isDebug()) {
@@ -27,18 +52,34 @@ public class KeycloakRealmExporter {
         }
 
         KeycloakExportClient exportClient = new KeycloakExportClient(config);
-        KubernetesClient kubernetesClient = new KubernetesClient(config);
+        SecretWriter secretWriter = createSecretWriter(config);
+        ExportCache exportCache = config.getExportCachePath() == null ? null : new ExportCache(config);
 
         Set<String> realmNames = config.getRealmNames();
-        boolean hasFailure = false;
+        RunReport runReport = new RunReport();
+        runReport.setSecretWriterType(config.getSecretWriterType());
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(p -> p.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
         for (String realm : realmNames) {
-            boolean success = exportRealm(exportClient, kubernetesClient, realm);
-            if (!success) {
-                hasFailure = true;
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            long startNanos = System.nanoTime();
+            RealmExportReport realmReport = new RealmExportReport(realm);
+            if (exportCache == null) {
+                exportRealm(config, exportClient, secretWriter, realmReport);
+            } else {
+                exportRealmCached(config, exportClient, secretWriter, exportCache, realmReport);
             }
+            realmReport.setTotalNanos(System.nanoTime() - startNanos);
+            long peakHeapBytes = heapPools.stream()
+                    .mapToLong(p -> p.getPeakUsage().getUsed())
+                    .sum();
+            realmReport.setPeakHeapBytes(peakHeapBytes);
+            runReport.addRealmReport(realmReport);
         }
-
-        System.exit(hasFailure ? 1 : 0);
+        runReport.finish();
+        writeRunReport(config, secretWriter, runReport);
+        return runReport;
     }
 
     private static void printHelp() {
@@ -57,6 +98,16 @@ public class KeycloakRealmExporter {
                 });
     }
 
+    private static SecretWriter createSecretWriter(KeycloakRealmExportConfig config) {
+        switch (config.getSecretWriterType()) {
+            case HTTP:
+                return new KubernetesHttpClient(config);
+            case CLIENT_JAVA:
+            default:
+                return new KubernetesClient(config);
+        }
+    }
+
     private static void tryReadLoggingConfig(KeycloakRealmExportConfig config) {
         try {
             boolean debug = config.isDebug();
@@ -68,26 +119,207 @@ public class KeycloakRealmExporter {
         }
     }
 
-    private static boolean exportRealm(KeycloakExportClient exportClient, KubernetesClient kubernetesClient, String realm) {
+    private static void exportRealm(KeycloakRealmExportConfig config, KeycloakExportClient exportClient, SecretWriter secretWriter,
+                                    RealmExportReport report) {
+        if (!authenticate(exportClient, report)) {
+            return;
+        }
+        exportAndPersistRealm(config, exportClient, secretWriter, report);
+    }
+
+    private static void exportAndPersistRealm(KeycloakRealmExportConfig config, KeycloakExportClient exportClient, SecretWriter secretWriter,
+                                              RealmExportReport report) {
+        String realm = report.getRealm();
         LOG.log(Level.INFO, "Exporting " + realm);
 
         InputStream realmData;
         try {
+            long exportStartNanos = System.nanoTime();
             realmData = exportClient.exportRealm(realm);
+            report.setExportTtfbNanos(System.nanoTime() - exportStartNanos);
+        } catch (Exception e) {
+            setFailed(report, "Unable to load realm data", e);
+            return;
+        }
+
+        MeteredInputStream meteredData = new MeteredInputStream(realmData);
+        try {
+            persistRealmData(config, secretWriter, meteredData, report);
+        } catch (Exception e) {
+            setFailed(report, "Unable to save realm data", e);
+            return;
+        }
+        report.setBytes(meteredData.getBytesRead());
+        report.setTransferNanos(meteredData.getReadNanos());
+        report.setPersistNanos(report.getPersistNanos() - meteredData.getReadNanos());
+
+        report.setOutcome(RealmExportOutcome.EXPORTED);
+        LOG.log(Level.INFO, realm + " successfully exported");
+    }
+
+    private static void exportRealmCached(KeycloakRealmExportConfig config, KeycloakExportClient exportClient, SecretWriter secretWriter,
+                                          ExportCache exportCache, RealmExportReport report) {
+        String realm = report.getRealm();
+        if (!authenticate(exportClient, report)) {
+            return;
+        }
+
+        Optional<String> fingerprintOptional;
+        long fingerprintStartNanos = System.nanoTime();
+        try {
+            fingerprintOptional = exportClient.fetchRealmFingerprint(realm);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Unable to fetch fingerprint of realm " + realm + ", exporting it", e);
+            fingerprintOptional = Optional.empty();
+        }
+        report.setFingerprintNanos(System.nanoTime() - fingerprintStartNanos);
+        if (fingerprintOptional.isEmpty()) {
+            exportAndPersistRealm(config, exportClient, secretWriter, report);
+            return;
+        }
+        String fingerprint = fingerprintOptional.get();
+        String secretName = SecretWriter.createSecretName(config, realm);
+        String secretKey = SecretWriter.createSecretKey(config, realm);
+
+        Optional<ExportCache.Entry> cachedEntryOptional = exportCache.findEntry(realm, fingerprint);
+        if (cachedEntryOptional.isPresent()) {
+            ExportCache.Entry cachedEntry = cachedEntryOptional.get();
+            if (exportCache.isPersistedAs(cachedEntry, secretName, secretKey) && secretExists(secretWriter, secretName)) {
+                report.setOutcome(RealmExportOutcome.UNCHANGED);
+                LOG.log(Level.INFO, realm + " unchanged since " + cachedEntry.getExportedAt());
+                return;
+            }
+            LOG.log(Level.INFO, realm + " unchanged since " + cachedEntry.getExportedAt() + ", persisting cached export");
+            try (MeteredInputStream cachedData = new MeteredInputStream(Files.newInputStream(cachedEntry.getDataPath()))) {
+                persistRealmData(config, secretWriter, cachedData, report);
+                report.setBytes(cachedData.getBytesRead());
+                report.setTransferNanos(cachedData.getReadNanos());
+                report.setPersistNanos(report.getPersistNanos() - cachedData.getReadNanos());
+                exportCache.updateSecret(cachedEntry, secretName, secretKey);
+            } catch (Exception e) {
+                setFailed(report, "Unable to save realm data", e);
+                return;
+            }
+            report.setOutcome(RealmExportOutcome.CACHED);
+            LOG.log(Level.INFO, realm + " successfully exported");
+            return;
+        }
+
+        LOG.log(Level.INFO, "Exporting " + realm);
+        Path tempDataPath;
+        long exportStartNanos = System.nanoTime();
+        try (InputStream realmData = exportClient.exportRealm(realm)) {
+            report.setExportTtfbNanos(System.nanoTime() - exportStartNanos);
+            MeteredInputStream meteredData = new MeteredInputStream(realmData);
+            tempDataPath = exportCache.writeTempData(realm, meteredData);
+            report.setBytes(meteredData.getBytesRead());
+            report.setTransferNanos(meteredData.getReadNanos());
         } catch (Exception e) {
-            LOG.log(Level.SEVERE, "Unable to load realm data", e);
+            setFailed(report, "Unable to load realm data", e);
+            return;
+        }
+
+        try (InputStream realmData = Files.newInputStream(tempDataPath)) {
+            persistRealmData(config, secretWriter, realmData, report);
+        } catch (Exception e) {
+            setFailed(report, "Unable to save realm data", e);
+            exportCache.deleteTempData(tempDataPath);
+            return;
+        }
+
+        try {
+            exportCache.storeEntry(realm, fingerprint, secretName, secretKey, tempDataPath);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Unable to cache export of realm " + realm, e);
+            exportCache.deleteTempData(tempDataPath);
+        }
+        report.setOutcome(RealmExportOutcome.EXPORTED);
+        LOG.log(Level.INFO, realm + " successfully exported");
+    }
+
+    private static boolean secretExists(SecretWriter secretWriter, String secretName) {
+        try {
+            return secretWriter.secretExists(secretName);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Unable to check whether secret " + secretName + " exists, persisting it", e);
             return false;
         }
+    }
 
+    private static boolean authenticate(KeycloakExportClient exportClient, RealmExportReport report) {
         try {
-            kubernetesClient.persistRealmData(realm, realmData);
+            long authStartNanos = System.nanoTime();
+            boolean tokenRequested = exportClient.authenticate();
+            if (tokenRequested) {
+                report.setAuthNanos(System.nanoTime() - authStartNanos);
+            }
+            return true;
         } catch (Exception e) {
-            LOG.log(Level.SEVERE, "Unable to save realm data", e);
+            setFailed(report, "Unable to authenticate to keycloak", e);
             return false;
         }
+    }
 
-        LOG.log(Level.INFO, realm + " successfully exported");
-        return true;
+    /**
+     * Writes the realm secret, and sets the persist time, excluding the encoding time when measured by the writer.
+     */
+    private static void persistRealmData(KeycloakRealmExportConfig config, SecretWriter secretWriter, InputStream realmData,
+                                         RealmExportReport report) throws IOException {
+        String realm = report.getRealm();
+        String secretName = SecretWriter.createSecretName(config, realm);
+        String secretKey = SecretWriter.createSecretKey(config, realm);
+
+        long persistStartNanos = System.nanoTime();
+        secretWriter.writeSecret(secretName, secretKey, realmData, report);
+        long persistNanos = System.nanoTime() - persistStartNanos;
+        Long encodeNanos = report.getEncodeNanos();
+        report.setPersistNanos(encodeNanos == null ? persistNanos : persistNanos - encodeNanos);
+    }
+
+    private static void setFailed(RealmExportReport report, String message, Exception e) {
+        LOG.log(Level.SEVERE, message, e);
+        report.setOutcome(RealmExportOutcome.FAILED);
+        report.setError(message + ": " + describeError(e));
+    }
+
+    /**
+     * Describes the exception along with its root cause, as some exceptions have no message, or a wrapped one.
+     */
+    private static String describeError(Throwable e) {
+        Throwable rootCause = e;
+        while (rootCause.getCause() != null && rootCause.getCause() != rootCause) {
+            rootCause = rootCause.getCause();
+        }
+        if (rootCause == e) {
+            return e.toString();
+        }
+        return e + ", caused by " + rootCause;
+    }
+
+    private static void writeRunReport(KeycloakRealmExportConfig config, SecretWriter secretWriter, RunReport runReport) {
+        String reportJson = runReport.toJson().toString();
+        if (config.isReportStdout()) {
+            System.out.println(reportJson);
+        }
+
+        Path reportPath = config.getReportPath();
+        if (reportPath != null) {
+            try {
+                Files.writeString(reportPath, reportJson, StandardCharsets.UTF_8);
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Unable to write report to " + reportPath, e);
+            }
+        }
+
+        String reportSecretName = config.getReportSecretName();
+        if (reportSecretName != null) {
+            byte[] reportBytes = reportJson.getBytes(StandardCharsets.UTF_8);
+            try {
+                secretWriter.writeSecret(reportSecretName, REPORT_SECRET_KEY, new ByteArrayInputStream(reportBytes), null);
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Unable to write report to secret " + reportSecretName, e);
+            }
+        }
     }
 
 }
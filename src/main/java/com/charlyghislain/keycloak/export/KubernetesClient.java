@@ -2,58 +2,40 @@ package com.charlyghislain.keycloak.export;
 
 import io.kubernetes.client.openapi.ApiClient;
 import io.kubernetes.client.openapi.ApiException;
-import io.kubernetes.client.openapi.Configuration;
 import io.kubernetes.client.openapi.apis.CoreV1Api;
 import io.kubernetes.client.openapi.models.V1ObjectMeta;
 import io.kubernetes.client.openapi.models.V1Secret;
 import io.kubernetes.client.util.ClientBuilder;
+import io.kubernetes.client.util.credentials.TokenFileAuthentication;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.text.MessageFormat;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class KubernetesClient {
+public class KubernetesClient implements SecretWriter {
 
     private final static Logger LOG = Logger.getLogger(KubernetesClient.class.getName());
 
     private KeycloakRealmExportConfig exportConfig;
+    private CoreV1Api api;
 
     public KubernetesClient(KeycloakRealmExportConfig exportConfig) {
         this.exportConfig = exportConfig;
     }
 
 
-    public void persistRealmData(String realm, InputStream data) throws IOException {
+    @Override
+    public void writeSecret(String secretName, String secretKey, InputStream data, RealmExportReport report) throws IOException {
         byte[] dataBytes = data.readAllBytes();
 
-        // loading the in-cluster config, including:
-        //   1. service-account CA
-        //   2. service-account bearer-token
-        //   3. service-account namespace
-        //   4. master endpoints(ip, port) from pre-set environment variables
-        ApiClient client = ClientBuilder.cluster().build();
-        if (exportConfig.isDebug()) {
-            client.setDebugging(true);
-        }
-
-        // if you prefer not to refresh service account token, please use:
-        // ApiClient client = ClientBuilder.oldCluster().build();
-
-        // set the global default api-client to the in-cluster one from above
-        Configuration.setDefaultApiClient(client);
-
-        // the CoreV1Api loads default api-client from global configuration.
-        CoreV1Api api = new CoreV1Api();
+        CoreV1Api api = getApi();
 
         String secretNamespace = exportConfig.getSecretNamespace();
-        String secretName = creatSecretName(realm);
-        String secretKey = creatSecretKey(realm);
         V1Secret existingSecret;
         try {
             existingSecret = api.readNamespacedSecret(secretName, secretNamespace, null);
@@ -93,18 +75,47 @@ public class KubernetesClient {
         }
     }
 
-    private String creatSecretName(String realm) {
-        String secretNamePattern = exportConfig.getSecretNamePattern();
-        String formattedDate = LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE);
-        String secretName = MessageFormat.format(secretNamePattern, realm, formattedDate);
-        return secretName;
+    @Override
+    public boolean secretExists(String secretName) throws IOException {
+        CoreV1Api api = getApi();
+        try {
+            api.readNamespacedSecret(secretName, exportConfig.getSecretNamespace(), null);
+            return true;
+        } catch (ApiException e) {
+            if (e.getCode() == 404) {
+                return false;
+            }
+            throw new IOException("Unable to read secret " + secretName + ": http " + e.getCode(), e);
+        }
     }
 
-    private String creatSecretKey(String realm) {
-        String keyPattern = exportConfig.getSecretKeyPattern();
-        String secretName = MessageFormat.format(keyPattern, realm);
-        return secretName;
+    private CoreV1Api getApi() throws IOException {
+        if (this.api != null) {
+            return this.api;
+        }
+
+        // Same as the in-cluster config, with the validated api server uri and service account path:
+        //   1. service-account CA, when reaching the api server over https
+        //   2. service-account bearer-token, refreshed as it gets rotated
+        Path serviceAccountPath = exportConfig.getKubernetesServiceAccountPath();
+        ClientBuilder clientBuilder = new ClientBuilder()
+                .setBasePath(exportConfig.getKubernetesApiUri().toString())
+                .setAuthentication(new TokenFileAuthentication(serviceAccountPath.resolve(KeycloakRealmExportConfigFactory.SERVICE_ACCOUNT_TOKEN_FILE_NAME).toString()));
+        if ("https".equalsIgnoreCase(exportConfig.getKubernetesApiUri().getScheme())) {
+            clientBuilder.setCertificateAuthority(Files.readAllBytes(serviceAccountPath.resolve(KeycloakRealmExportConfigFactory.SERVICE_ACCOUNT_CA_FILE_NAME)));
+        }
+        ApiClient client = clientBuilder.build();
+        if (exportConfig.isDebug()) {
+            client.setDebugging(true);
+        }
+
+        // if you prefer not to refresh service account token, please use:
+        // ApiClient client = ClientBuilder.oldCluster().build();
+
+        // Pass the client explicitly rather than through the global Configuration,
+        // so that nothing is initialized before the first secret is persisted.
+        this.api = new CoreV1Api(client);
+        return this.api;
     }
 
 }
-
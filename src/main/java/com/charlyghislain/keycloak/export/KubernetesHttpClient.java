@@ -0,0 +1,232 @@
+package com.charlyghislain.keycloak.export;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Minimal secret writer using the jdk http client and the service account.
+ * <p>
+ * The secret json body is streamed, the realm data being base64-encoded while it is sent, instead of being
+ * buffered and serialized through the kubernetes client-java models.
+ */
+public class KubernetesHttpClient implements SecretWriter {
+
+    private final static Logger LOG = Logger.getLogger(KubernetesHttpClient.class.getName());
+
+    private final KeycloakRealmExportConfig exportConfig;
+    private HttpClient httpClient;
+
+    public KubernetesHttpClient(KeycloakRealmExportConfig exportConfig) {
+        this.exportConfig = exportConfig;
+    }
+
+    @Override
+    public void writeSecret(String secretName, String secretKey, InputStream data, RealmExportReport report) throws IOException {
+        HttpClient client = getHttpClient();
+        String token = readToken();
+
+        String secretNamespace = exportConfig.getSecretNamespace();
+        URI secretsUri = getSecretsUri();
+        URI secretUri = getSecretUri(secretName);
+
+        try {
+            boolean secretExists = secretExists(client, token, secretUri);
+            if (!secretExists) {
+                LOG.log(Level.FINE, "Secret " + secretName + " not found, creating it");
+            }
+
+            // Not posting first and replacing on conflict: the body can only be streamed once
+            Base64EncodingInputStream encodedData = new Base64EncodingInputStream(data);
+            AtomicBoolean bodySupplied = new AtomicBoolean();
+            HttpRequest.BodyPublisher bodyPublisher = HttpRequest.BodyPublishers.ofInputStream(() -> {
+                if (bodySupplied.getAndSet(true)) {
+                    throw new IllegalStateException("The body of secret " + secretName + " can only be sent once");
+                }
+                return createSecretBodyStream(secretName, secretNamespace, secretKey, encodedData);
+            });
+            HttpRequest writeRequest = HttpRequest.newBuilder()
+                    .method(secretExists ? "PUT" : "POST", bodyPublisher)
+                    .uri(secretExists ? secretUri : secretsUri)
+                    .header("content-type", "application/json")
+                    .header("accept", "application/json")
+                    .header("authorization", "Bearer " + token)
+                    .build();
+            HttpResponse<String> writeResponse = client.send(writeRequest, HttpResponse.BodyHandlers.ofString());
+            debugResponse(writeResponse);
+            int statusCode = writeResponse.statusCode();
+            if (statusCode != 200 && statusCode != 201) {
+                throw new RuntimeException("Unable to create/replace secret " + secretName + ": http " + statusCode + " : " + writeResponse.body());
+            }
+            if (report != null) {
+                report.setEncodeNanos(encodedData.getEncodeNanos());
+            }
+            LOG.log(Level.FINE, "Created/replaced secret " + secretName + " with " + encodedData.getSourceBytesRead() + " bytes in key" + secretKey);
+            if (exportConfig.isDebug()) {
+                LOG.log(Level.FINER, "Updated secret: " + writeResponse.body());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing secret " + secretName, e);
+        }
+    }
+
+    @Override
+    public boolean secretExists(String secretName) throws IOException {
+        HttpClient client = getHttpClient();
+        String token = readToken();
+        try {
+            return secretExists(client, token, getSecretUri(secretName));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading secret " + secretName, e);
+        }
+    }
+
+    private String readToken() throws IOException {
+        // Read on each call, the projected token gets rotated
+        Path tokenPath = exportConfig.getKubernetesServiceAccountPath().resolve(KeycloakRealmExportConfigFactory.SERVICE_ACCOUNT_TOKEN_FILE_NAME);
+        return Files.readString(tokenPath, StandardCharsets.UTF_8).strip();
+    }
+
+    private URI getSecretsUri() {
+        return exportConfig.getKubernetesApiUri().resolve("/api/v1/namespaces/" + encodePathSegment(exportConfig.getSecretNamespace()) + "/secrets");
+    }
+
+    private URI getSecretUri(String secretName) {
+        return exportConfig.getKubernetesApiUri().resolve(getSecretsUri().getRawPath() + "/" + encodePathSegment(secretName));
+    }
+
+    /**
+     * Checks whether the secret exists, requesting its metadata only rather than its whole data.
+     */
+    private boolean secretExists(HttpClient client, String token, URI secretUri) throws IOException, InterruptedException {
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .GET()
+                .uri(secretUri)
+                // Falls back to the full object on api servers not supporting partial metadata
+                .header("accept", "application/json;as=PartialObjectMetadata;g=meta.k8s.io;v=v1,application/json")
+                .header("authorization", "Bearer " + token)
+                .build();
+        HttpResponse<Void> getResponse = client.send(getRequest, HttpResponse.BodyHandlers.discarding());
+        debugResponse(getResponse);
+        int statusCode = getResponse.statusCode();
+        if (statusCode == 404) {
+            return false;
+        }
+        if (statusCode != 200) {
+            throw new IOException("Unable to read secret at " + secretUri + ": http " + statusCode);
+        }
+        return true;
+    }
+
+    private InputStream createSecretBodyStream(String secretName, String secretNamespace, String secretKey, InputStream encodedData) {
+        JsonObjectBuilder metadataBuilder = Json.createObjectBuilder()
+                .add("name", secretName)
+                .add("namespace", secretNamespace);
+        Optional.ofNullable(exportConfig.getSecretLabels())
+                .filter(m -> !m.isEmpty())
+                .ifPresent(m -> metadataBuilder.add("labels", createStringMapObject(m)));
+        Optional.ofNullable(exportConfig.getSecretAnnotations())
+                .filter(m -> !m.isEmpty())
+                .ifPresent(m -> metadataBuilder.add("annotations", createStringMapObject(m)));
+        JsonObject metadata = metadataBuilder.build();
+
+        String bodyPrefix = "{\"apiVersion\":\"v1\",\"kind\":\"Secret\",\"type\":\"Opaque\","
+                + "\"metadata\":" + metadata + ","
+                + "\"data\":{" + Json.createValue(secretKey) + ":\"";
+        String bodySuffix = "\"}}";
+
+        List<InputStream> bodyParts = List.of(
+                new ByteArrayInputStream(bodyPrefix.getBytes(StandardCharsets.UTF_8)),
+                encodedData,
+                new ByteArrayInputStream(bodySuffix.getBytes(StandardCharsets.UTF_8))
+        );
+        return new SequenceInputStream(Collections.enumeration(bodyParts));
+    }
+
+    private JsonObjectBuilder createStringMapObject(Map<String, String> values) {
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+        values.forEach(builder::add);
+        return builder;
+    }
+
+    private HttpClient getHttpClient() {
+        if (this.httpClient != null) {
+            return this.httpClient;
+        }
+
+        if (!"https".equalsIgnoreCase(exportConfig.getKubernetesApiUri().getScheme())) {
+            this.httpClient = HttpClient.newHttpClient();
+            return this.httpClient;
+        }
+
+        Path caPath = exportConfig.getKubernetesServiceAccountPath().resolve(KeycloakRealmExportConfigFactory.SERVICE_ACCOUNT_CA_FILE_NAME);
+        try (InputStream caStream = Files.newInputStream(caPath)) {
+            SSLContext sslContext = createSslContext(caStream);
+            this.httpClient = HttpClient.newBuilder()
+                    .sslContext(sslContext)
+                    .build();
+            return this.httpClient;
+        } catch (IOException | GeneralSecurityException e) {
+            throw new RuntimeException("Unable to read service account CA at " + caPath + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static SSLContext createSslContext(InputStream caStream) throws IOException, GeneralSecurityException {
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        Collection<? extends Certificate> caCertificates = certificateFactory.generateCertificates(caStream);
+        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        int index = 0;
+        for (Certificate certificate : caCertificates) {
+            trustStore.setCertificateEntry("ca-" + index++, certificate);
+        }
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        return sslContext;
+    }
+
+    private String encodePathSegment(String segment) {
+        return URLEncoder.encode(segment, StandardCharsets.UTF_8)
+                .replace("+", "%20");
+    }
+
+    private void debugResponse(HttpResponse<?> httpResponse) {
+        if (!exportConfig.isDebug()) {
+            return;
+        }
+        HttpRequest request = httpResponse.request();
+        LOG.log(Level.FINER, "> " + request.method() + " " + request.uri() + " < " + httpResponse.statusCode());
+    }
+}
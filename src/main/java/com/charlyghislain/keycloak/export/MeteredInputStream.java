@@ -0,0 +1,55 @@
+package com.charlyghislain.keycloak.export;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the wrapped stream and the time spent reading them.
+ */
+public class MeteredInputStream extends FilterInputStream {
+
+    private long bytesRead;
+    private long readNanos;
+
+    public MeteredInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int read = super.read();
+        readNanos += System.nanoTime() - start;
+        if (read >= 0) {
+            bytesRead++;
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int read = super.read(b, off, len);
+        readNanos += System.nanoTime() - start;
+        if (read > 0) {
+            bytesRead += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        bytesRead += skipped;
+        return skipped;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+}
@@ -0,0 +1,17 @@
+package com.charlyghislain.keycloak.export;
+
+public enum RealmExportOutcome {
+    /**
+     * The realm was exported from keycloak and persisted
+     */
+    EXPORTED,
+    /**
+     * The realm was unchanged and its cached export was persisted, without exporting it from keycloak
+     */
+    CACHED,
+    /**
+     * The realm was unchanged and already persisted, nothing was done
+     */
+    UNCHANGED,
+    FAILED,
+}
@@ -0,0 +1,60 @@
+package com.charlyghislain.keycloak.export;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Outcome and timing breakdown of a single realm export.
+ * <p>
+ * Phases that did not run, or could not be measured, are left null.
+ */
+@Getter
+@Setter
+@ToString
+public class RealmExportReport {
+
+    private final String realm;
+    private RealmExportOutcome outcome;
+    private String error;
+
+    private Long fingerprintNanos;
+    private Long authNanos;
+    /**
+     * Time until the export response headers were received
+     */
+    private Long exportTtfbNanos;
+    /**
+     * Time spent reading the realm data, either from keycloak or from the cache
+     */
+    private Long transferNanos;
+    private Long encodeNanos;
+    /**
+     * Time spent writing the secret, excluding the transfer and encode time
+     */
+    private Long persistNanos;
+    private long totalNanos;
+    private long bytes;
+    /**
+     * Peak heap usage while exporting this realm, summed over the heap memory pools
+     */
+    private Long peakHeapBytes;
+
+    public RealmExportReport(String realm) {
+        this.realm = realm;
+    }
+
+    public boolean isSuccess() {
+        return outcome != RealmExportOutcome.FAILED;
+    }
+
+    /**
+     * @return the bytes read per second of transfer, or null if no data was transferred
+     */
+    public Double getThroughputBytesPerSecond() {
+        if (transferNanos == null || transferNanos == 0 || bytes == 0) {
+            return null;
+        }
+        return bytes * 1_000_000_000d / transferNanos;
+    }
+}
@@ -0,0 +1,139 @@
+package com.charlyghislain.keycloak.export;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Machine-readable report of an exporter run, with the timing breakdown of each realm.
+ */
+public class RunReport {
+
+    @Getter
+    private final Instant startedAt;
+    @Getter
+    private Instant finishedAt;
+    @Getter
+    private final List<RealmExportReport> realmReports = new ArrayList<>();
+    @Getter
+    @Setter
+    private SecretWriterType secretWriterType;
+
+    public RunReport() {
+        this.startedAt = Instant.now();
+    }
+
+    public void addRealmReport(RealmExportReport realmReport) {
+        realmReports.add(realmReport);
+    }
+
+    public void finish() {
+        this.finishedAt = Instant.now();
+    }
+
+    public boolean hasFailure() {
+        return realmReports.stream()
+                .anyMatch(r -> !r.isSuccess());
+    }
+
+    public JsonObject toJson() {
+        JsonArrayBuilder realmsBuilder = Json.createArrayBuilder();
+        realmReports.stream()
+                .map(this::createRealmJson)
+                .forEach(realmsBuilder::add);
+
+        // Only exported realms, so that cached, unchanged or failed ones do not skew the export cost
+        long[] totalNanos = realmReports.stream()
+                .filter(r -> r.getOutcome() == RealmExportOutcome.EXPORTED)
+                .mapToLong(RealmExportReport::getTotalNanos)
+                .sorted()
+                .toArray();
+        long[] exportedBytes = realmReports.stream()
+                .filter(r -> r.getOutcome() == RealmExportOutcome.EXPORTED)
+                .mapToLong(RealmExportReport::getBytes)
+                .sorted()
+                .toArray();
+
+        JsonObjectBuilder builder = Json.createObjectBuilder()
+                .add("startedAt", startedAt.toString());
+        if (finishedAt != null) {
+            builder.add("finishedAt", finishedAt.toString())
+                    .add("durationMs", toMillis(Duration.between(startedAt, finishedAt).toNanos()));
+        }
+        if (secretWriterType != null) {
+            builder.add("secretWriter", secretWriterType.getPropertyValue());
+        }
+        realmReports.stream()
+                .map(RealmExportReport::getPeakHeapBytes)
+                .filter(Objects::nonNull)
+                .mapToLong(Long::longValue)
+                .max()
+                .ifPresent(peakHeapBytes -> builder.add("peakHeapBytes", peakHeapBytes));
+        builder.add("realmCount", realmReports.size())
+                .add("failureCount", realmReports.stream().filter(r -> !r.isSuccess()).count())
+                .add("totalExportedBytes", Arrays.stream(exportedBytes).sum());
+        if (totalNanos.length > 0) {
+            builder.add("p50TotalMs", toMillis(percentile(totalNanos, 50)))
+                    .add("p95TotalMs", toMillis(percentile(totalNanos, 95)));
+        }
+        if (exportedBytes.length > 0) {
+            builder.add("p50ExportedBytes", percentile(exportedBytes, 50))
+                    .add("p95ExportedBytes", percentile(exportedBytes, 95));
+        }
+        return builder.add("realms", realmsBuilder)
+                .build();
+    }
+
+    private JsonObject createRealmJson(RealmExportReport report) {
+        JsonObjectBuilder builder = Json.createObjectBuilder()
+                .add("realm", report.getRealm())
+                .add("outcome", report.getOutcome().name());
+        if (report.getError() != null) {
+            builder.add("error", report.getError());
+        }
+        addMillis(builder, "fingerprintMs", report.getFingerprintNanos());
+        addMillis(builder, "authMs", report.getAuthNanos());
+        addMillis(builder, "exportTtfbMs", report.getExportTtfbNanos());
+        addMillis(builder, "transferMs", report.getTransferNanos());
+        addMillis(builder, "encodeMs", report.getEncodeNanos());
+        addMillis(builder, "persistMs", report.getPersistNanos());
+        addMillis(builder, "totalMs", report.getTotalNanos());
+        builder.add("bytes", report.getBytes());
+        if (report.getPeakHeapBytes() != null) {
+            builder.add("peakHeapBytes", report.getPeakHeapBytes());
+        }
+        Double throughput = report.getThroughputBytesPerSecond();
+        if (throughput != null) {
+            builder.add("throughputBytesPerSecond", Math.round(throughput));
+        }
+        return builder.build();
+    }
+
+    private void addMillis(JsonObjectBuilder builder, String name, Long nanos) {
+        if (nanos != null) {
+            builder.add(name, toMillis(nanos));
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1_000d) / 1_000d;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values
+     */
+    private static long percentile(long[] sortedValues, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100d * sortedValues.length);
+        return sortedValues[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,35 @@
+package com.charlyghislain.keycloak.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Persists exported realm data into a kubernetes secret.
+ */
+public interface SecretWriter {
+
+    /**
+     * Creates or replaces a secret holding the data in a single key.
+     *
+     * @param report collects the encoding time when the writer is able to measure it. May be null.
+     */
+    void writeSecret(String secretName, String secretKey, InputStream data, RealmExportReport report) throws IOException;
+
+    boolean secretExists(String secretName) throws IOException;
+
+    static String createSecretName(KeycloakRealmExportConfig exportConfig, String realm) {
+        String secretNamePattern = exportConfig.getSecretNamePattern();
+        String formattedDate = LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE);
+        String secretName = MessageFormat.format(secretNamePattern, realm, formattedDate);
+        return secretName;
+    }
+
+    static String createSecretKey(KeycloakRealmExportConfig exportConfig, String realm) {
+        String keyPattern = exportConfig.getSecretKeyPattern();
+        String secretName = MessageFormat.format(keyPattern, realm);
+        return secretName;
+    }
+}
@@ -0,0 +1,26 @@
+package com.charlyghislain.keycloak.export;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+public enum SecretWriterType {
+
+    CLIENT_JAVA("client-java"),
+    HTTP("http"),
+    ;
+
+    @Getter
+    private final String propertyValue;
+
+    SecretWriterType(String propertyValue) {
+        this.propertyValue = propertyValue;
+    }
+
+    public static Optional<SecretWriterType> fromPropertyValue(String value) {
+        return Arrays.stream(SecretWriterType.values())
+                .filter(t -> t.getPropertyValue().equalsIgnoreCase(value.strip()))
+                .findAny();
+    }
+}
@@ -0,0 +1,86 @@
+package com.charlyghislain.keycloak.export;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class Base64EncodingInputStreamTest {
+
+    // Source block size used by the stream
+    private static final int BLOCK_SIZE = 3 * 4096;
+
+    @Test
+    void encodesEmptyStream() throws IOException {
+        assertEncoded(new byte[0]);
+    }
+
+    @Test
+    void encodesPartialBlocks() throws IOException {
+        for (int length = 1; length <= 5; length++) {
+            assertEncoded(createData(length));
+        }
+    }
+
+    @Test
+    void encodesBlockBoundaries() throws IOException {
+        assertEncoded(createData(BLOCK_SIZE - 1));
+        assertEncoded(createData(BLOCK_SIZE));
+        assertEncoded(createData(BLOCK_SIZE + 1));
+        assertEncoded(createData(BLOCK_SIZE * 2));
+        assertEncoded(createData(BLOCK_SIZE * 3 + 2));
+    }
+
+    @Test
+    void encodesSourceReturningShortReads() throws IOException {
+        byte[] data = createData(BLOCK_SIZE * 2 + 7);
+        InputStream trickleSource = new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 100));
+            }
+        };
+        Base64EncodingInputStream encodingStream = new Base64EncodingInputStream(trickleSource);
+
+        assertArrayEquals(Base64.getEncoder().encode(data), encodingStream.readAllBytes());
+        assertEquals(data.length, encodingStream.getSourceBytesRead());
+    }
+
+    @Test
+    void encodesSingleByteReads() throws IOException {
+        byte[] data = createData(BLOCK_SIZE + 2);
+        Base64EncodingInputStream encodingStream = new Base64EncodingInputStream(new ByteArrayInputStream(data));
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        int read;
+        while ((read = encodingStream.read()) != -1) {
+            encoded.write(read);
+        }
+
+        assertArrayEquals(Base64.getEncoder().encode(data), encoded.toByteArray());
+        assertEquals(-1, encodingStream.read(new byte[4], 0, 4));
+    }
+
+    private void assertEncoded(byte[] data) throws IOException {
+        Base64EncodingInputStream encodingStream = new Base64EncodingInputStream(new ByteArrayInputStream(data));
+
+        byte[] encoded = encodingStream.readAllBytes();
+
+        assertArrayEquals(Base64.getEncoder().encode(data), encoded, "length " + data.length);
+        assertEquals(data.length, encodingStream.getSourceBytesRead());
+    }
+
+    private byte[] createData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,165 @@
+package com.charlyghislain.keycloak.export;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExportCacheTest {
+
+    @TempDir
+    Path cachePath;
+
+    private KeycloakRealmExportConfig config;
+
+    @BeforeEach
+    void setUp() {
+        config = new KeycloakRealmExportConfig();
+        config.setExportCachePath(cachePath);
+        config.setExportCacheMaxAge(Duration.ofDays(1));
+        config.setSecretLabels(Map.of("app", "keycloak"));
+        config.setSecretAnnotations(Map.of());
+    }
+
+    @Test
+    void findsEntryWithSameFingerprint() throws IOException {
+        ExportCache exportCache = new ExportCache(config);
+        storeEntry(exportCache, "master", "fingerprint", "data");
+
+        Optional<ExportCache.Entry> entry = exportCache.findEntry("master", "fingerprint");
+
+        assertTrue(entry.isPresent());
+        assertEquals("data", Files.readString(entry.get().getDataPath()));
+        assertTrue(exportCache.isPersistedAs(entry.get(), "secret-master", "master.json"));
+        assertFalse(exportCache.findEntry("master", "other-fingerprint").isPresent());
+    }
+
+    @Test
+    void ignoresStaleEntry() throws IOException {
+        ExportCache exportCache = new ExportCache(config);
+        storeEntry(exportCache, "master", "fingerprint", "data");
+        setExportedAt("master", Instant.now().minus(Duration.ofDays(2)));
+
+        assertFalse(exportCache.findEntry("master", "fingerprint").isPresent());
+    }
+
+    @Test
+    void ignoresInvalidExportTime() throws IOException {
+        ExportCache exportCache = new ExportCache(config);
+        storeEntry(exportCache, "master", "fingerprint", "data");
+        setMetadata("master", "exportedAt", "yesterday");
+
+        assertFalse(exportCache.findEntry("master", "fingerprint").isPresent());
+    }
+
+    @Test
+    void detectsSecretChanges() throws IOException {
+        storeEntry(new ExportCache(config), "master", "fingerprint", "data");
+        config.setSecretLabels(Map.of("app", "keycloak", "env", "test"));
+        ExportCache exportCache = new ExportCache(config);
+
+        ExportCache.Entry entry = exportCache.findEntry("master", "fingerprint").orElseThrow();
+
+        assertFalse(exportCache.isPersistedAs(entry, "secret-master", "master.json"));
+        exportCache.updateSecret(entry, "secret-master", "master.json");
+        ExportCache.Entry updatedEntry = exportCache.findEntry("master", "fingerprint").orElseThrow();
+        assertTrue(exportCache.isPersistedAs(updatedEntry, "secret-master", "master.json"));
+        assertFalse(exportCache.isPersistedAs(updatedEntry, "secret-master", "other.json"));
+        assertFalse(exportCache.isPersistedAs(updatedEntry, "other-secret", "master.json"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntries() throws IOException {
+        config.setExportCacheMaxSize(12L);
+        ExportCache exportCache = new ExportCache(config);
+        storeEntry(exportCache, "first", "fingerprint", "12345");
+        storeEntry(exportCache, "second", "fingerprint", "12345");
+        setLastModifiedTime("first", Instant.now().minusSeconds(20));
+        setLastModifiedTime("second", Instant.now().minusSeconds(10));
+        // Using the first entry makes the second one the least recently used
+        assertTrue(exportCache.findEntry("first", "fingerprint").isPresent());
+
+        storeEntry(exportCache, "third", "fingerprint", "12345");
+
+        assertTrue(exportCache.findEntry("first", "fingerprint").isPresent());
+        assertFalse(exportCache.findEntry("second", "fingerprint").isPresent());
+        assertFalse(Files.exists(cachePath.resolve("second.properties")));
+        assertTrue(exportCache.findEntry("third", "fingerprint").isPresent());
+    }
+
+    @Test
+    void retainsStoredEntryLargerThanMaxSize() throws IOException {
+        config.setExportCacheMaxSize(4L);
+        ExportCache exportCache = new ExportCache(config);
+        storeEntry(exportCache, "first", "fingerprint", "12345");
+        storeEntry(exportCache, "second", "fingerprint", "12345");
+
+        assertFalse(exportCache.findEntry("first", "fingerprint").isPresent());
+        assertTrue(exportCache.findEntry("second", "fingerprint").isPresent());
+    }
+
+    @Test
+    void deletesTempDataWhenWriteFails() throws IOException {
+        ExportCache exportCache = new ExportCache(config);
+        InputStream failingData = new InputStream() {
+            private int count;
+
+            @Override
+            public int read() throws IOException {
+                if (count++ > 8) {
+                    throw new IOException("Connection reset");
+                }
+                return 'a';
+            }
+        };
+
+        assertThrows(IOException.class, () -> exportCache.writeTempData("master", failingData));
+
+        try (var cachedPaths = Files.list(cachePath)) {
+            assertEquals(0, cachedPaths.count());
+        }
+    }
+
+    private void storeEntry(ExportCache exportCache, String realm, String fingerprint, String data) throws IOException {
+        Path tempDataPath = exportCache.writeTempData(realm, new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+        exportCache.storeEntry(realm, fingerprint, "secret-" + realm, realm + ".json", tempDataPath);
+    }
+
+    private void setExportedAt(String realm, Instant exportedAt) throws IOException {
+        setMetadata(realm, "exportedAt", exportedAt.toString());
+    }
+
+    private void setMetadata(String realm, String key, String value) throws IOException {
+        Path metadataPath = cachePath.resolve(realm + ".properties");
+        Properties metadata = new Properties();
+        try (InputStream metadataStream = Files.newInputStream(metadataPath)) {
+            metadata.load(metadataStream);
+        }
+        metadata.setProperty(key, value);
+        try (OutputStream metadataStream = Files.newOutputStream(metadataPath)) {
+            metadata.store(metadataStream, realm);
+        }
+    }
+
+    private void setLastModifiedTime(String realm, Instant lastModified) throws IOException {
+        Files.setLastModifiedTime(cachePath.resolve(realm + ".json"), FileTime.from(lastModified));
+    }
+}
@@ -0,0 +1,118 @@
+package com.charlyghislain.keycloak.export;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeycloakRealmExportConfigFactoryTest {
+
+    @TempDir
+    Path serviceAccountPath;
+
+    private Map<String, String> properties;
+    private Map<String, String> environment;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.writeString(serviceAccountPath.resolve("token"), "token");
+        Files.writeString(serviceAccountPath.resolve("ca.crt"), "ca");
+
+        properties = new HashMap<>();
+        properties.put("realmName", "master");
+        properties.put("keycloakApiUri", "http://keycloak:8080/auth");
+        properties.put("adminUsername", "admin");
+        properties.put("adminPassword", "password");
+        properties.put("secretNamespace", "keycloak");
+        properties.put("kubernetesServiceAccountPath", serviceAccountPath.toString());
+
+        environment = new HashMap<>();
+        environment.put("KUBERNETES_SERVICE_HOST", "10.0.0.1");
+        environment.put("KUBERNETES_SERVICE_PORT", "6443");
+    }
+
+    @Test
+    void parsesKeyValueLists() {
+        properties.put("secretLabels", "app:keycloak, env=test,,");
+        properties.put("secretAnnotations", "example.com/source:http://keycloak:8080/auth,example.com/query=a=b");
+
+        KeycloakRealmExportConfig config = createConfig();
+
+        assertEquals(List.of("app", "env"), List.copyOf(config.getSecretLabels().keySet()));
+        assertEquals("keycloak", config.getSecretLabels().get("app"));
+        assertEquals("test", config.getSecretLabels().get("env"));
+        assertEquals("http://keycloak:8080/auth", config.getSecretAnnotations().get("example.com/source"));
+        assertEquals("a=b", config.getSecretAnnotations().get("example.com/query"));
+    }
+
+    @Test
+    void rejectsInvalidKeyValueEntries() {
+        properties.put("secretLabels", "app");
+        assertThrows(RuntimeException.class, this::createConfig);
+
+        properties.put("secretLabels", ":keycloak");
+        assertThrows(RuntimeException.class, this::createConfig);
+
+        properties.put("secretLabels", "app:not a label value");
+        assertThrows(RuntimeException.class, this::createConfig);
+    }
+
+    @Test
+    void resolvesInClusterApiUri() {
+        KeycloakRealmExportConfig config = createConfig();
+
+        assertEquals(URI.create("https://10.0.0.1:6443"), config.getKubernetesApiUri());
+        assertEquals(serviceAccountPath, config.getKubernetesServiceAccountPath());
+    }
+
+    @Test
+    void resolvesIpv6InClusterApiUri() {
+        environment.put("KUBERNETES_SERVICE_HOST", "fd00::1");
+        environment.remove("KUBERNETES_SERVICE_PORT");
+
+        KeycloakRealmExportConfig config = createConfig();
+
+        assertEquals(URI.create("https://[fd00::1]:443"), config.getKubernetesApiUri());
+    }
+
+    @Test
+    void requiresKubernetesServiceHost() {
+        environment.remove("KUBERNETES_SERVICE_HOST");
+
+        RuntimeException exception = assertThrows(RuntimeException.class, this::createConfig);
+        assertTrue(exception.getMessage().contains("KUBERNETES_SERVICE_HOST"));
+    }
+
+    @Test
+    void requiresServiceAccountToken() throws IOException {
+        Files.delete(serviceAccountPath.resolve("token"));
+
+        assertThrows(RuntimeException.class, this::createConfig);
+    }
+
+    @Test
+    void requiresServiceAccountCaOverHttps() throws IOException {
+        Files.delete(serviceAccountPath.resolve("ca.crt"));
+
+        assertThrows(RuntimeException.class, this::createConfig);
+
+        properties.put("kubernetesApiUri", "http://127.0.0.1:8001");
+        KeycloakRealmExportConfig config = createConfig();
+        assertEquals(URI.create("http://127.0.0.1:8001"), config.getKubernetesApiUri());
+    }
+
+    private KeycloakRealmExportConfig createConfig() {
+        return KeycloakRealmExportConfigFactory.createConfig(properties, environment);
+    }
+}
@@ -0,0 +1,78 @@
+package com.charlyghislain.keycloak.export;
+
+import jakarta.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RunReportTest {
+
+    @Test
+    void computesNearestRankPercentiles() {
+        RunReport runReport = new RunReport();
+        // Added out of order
+        for (int i = 20; i >= 1; i--) {
+            runReport.addRealmReport(createReport("realm-" + i, RealmExportOutcome.EXPORTED, i * 1_000_000L, i * 100L));
+        }
+
+        JsonObject reportJson = runReport.toJson();
+
+        assertEquals(10d, reportJson.getJsonNumber("p50TotalMs").doubleValue());
+        assertEquals(19d, reportJson.getJsonNumber("p95TotalMs").doubleValue());
+        assertEquals(1000L, reportJson.getJsonNumber("p50ExportedBytes").longValue());
+        assertEquals(1900L, reportJson.getJsonNumber("p95ExportedBytes").longValue());
+        assertEquals(21000L, reportJson.getJsonNumber("totalExportedBytes").longValue());
+    }
+
+    @Test
+    void computesPercentilesOfSingleExport() {
+        RunReport runReport = new RunReport();
+        runReport.addRealmReport(createReport("master", RealmExportOutcome.EXPORTED, 3_000_000L, 42L));
+
+        JsonObject reportJson = runReport.toJson();
+
+        assertEquals(3d, reportJson.getJsonNumber("p50TotalMs").doubleValue());
+        assertEquals(3d, reportJson.getJsonNumber("p95TotalMs").doubleValue());
+        assertEquals(42L, reportJson.getJsonNumber("p50ExportedBytes").longValue());
+        assertEquals(42L, reportJson.getJsonNumber("p95ExportedBytes").longValue());
+    }
+
+    @Test
+    void computesPercentilesOfExportedRealmsOnly() {
+        RunReport runReport = new RunReport();
+        runReport.addRealmReport(createReport("exported", RealmExportOutcome.EXPORTED, 5_000_000L, 500L));
+        runReport.addRealmReport(createReport("cached", RealmExportOutcome.CACHED, 1_000_000L, 100L));
+        runReport.addRealmReport(createReport("unchanged", RealmExportOutcome.UNCHANGED, 100_000L, 0L));
+        runReport.addRealmReport(createReport("failed", RealmExportOutcome.FAILED, 90_000_000L, 0L));
+
+        JsonObject reportJson = runReport.toJson();
+
+        assertEquals(5d, reportJson.getJsonNumber("p50TotalMs").doubleValue());
+        assertEquals(5d, reportJson.getJsonNumber("p95TotalMs").doubleValue());
+        assertEquals(500L, reportJson.getJsonNumber("p95ExportedBytes").longValue());
+        assertEquals(4, reportJson.getInt("realmCount"));
+        assertEquals(1, reportJson.getInt("failureCount"));
+    }
+
+    @Test
+    void omitsPercentilesWithoutExport() {
+        RunReport runReport = new RunReport();
+        runReport.addRealmReport(createReport("unchanged", RealmExportOutcome.UNCHANGED, 100_000L, 0L));
+
+        JsonObject reportJson = runReport.toJson();
+
+        assertFalse(reportJson.containsKey("p50TotalMs"));
+        assertFalse(reportJson.containsKey("p95ExportedBytes"));
+        assertTrue(reportJson.containsKey("realms"));
+    }
+
+    private RealmExportReport createReport(String realm, RealmExportOutcome outcome, long totalNanos, long bytes) {
+        RealmExportReport report = new RealmExportReport(realm);
+        report.setOutcome(outcome);
+        report.setTotalNanos(totalNanos);
+        report.setBytes(bytes);
+        return report;
+    }
+}
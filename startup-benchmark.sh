@@ -0,0 +1,63 @@
+#!/usr/bin/env bash
+# Measures the exporter startup time with and without the AppCDS archive built as in the Dockerfile.
+# Usage: ./startup-benchmark.sh [iterations]
+# Requires the jar to be built first (mvn package).
+#
+# The measured export runs go through config resolution and validation, logging setup and client creation, then fail
+# fast on an unreachable keycloak. They then write the run report to a secret, which builds the secret writer
+# (client-java or http) against a fake in-cluster api server, using a generated service account directory.
+# Additional jvm options can be passed through JAVA_TOOL_OPTIONS.
+
+set -e
+
+ITERATIONS=${1:-10}
+JAVA=${JAVA:-java}
+KEYTOOL=${KEYTOOL:-keytool}
+JAR=target/keycloak-realm-cluster-exporter-jar-with-dependencies.jar
+ARCHIVE=target/exporter.jsa
+RUN_ARGS=(
+  realmName=benchmark
+  keycloakApiUri=http://127.0.0.1:9/auth
+  adminUsername=benchmark
+  adminPassword=benchmark
+  secretNamespace=benchmark
+  reportSecretName=benchmark-report
+)
+
+if [ ! -f "$JAR" ]; then
+  echo "$JAR not found, run mvn package first" >&2
+  exit 1
+fi
+
+SERVICE_ACCOUNT_PATH=$(mktemp -d)
+trap 'rm -rf "$SERVICE_ACCOUNT_PATH"' EXIT
+echo benchmark > "$SERVICE_ACCOUNT_PATH/token"
+"$KEYTOOL" -genkeypair -alias ca -keyalg EC -dname CN=benchmark -validity 1 -storetype pkcs12 \
+  -keystore "$SERVICE_ACCOUNT_PATH/ca.p12" -storepass benchmark > /dev/null 2>&1
+"$KEYTOOL" -exportcert -rfc -alias ca -keystore "$SERVICE_ACCOUNT_PATH/ca.p12" -storepass benchmark \
+  -file "$SERVICE_ACCOUNT_PATH/ca.crt" > /dev/null 2>&1
+RUN_ARGS+=(kubernetesServiceAccountPath="$SERVICE_ACCOUNT_PATH")
+export KUBERNETES_SERVICE_HOST=127.0.0.1
+export KUBERNETES_SERVICE_PORT=9
+
+"$JAVA" -XX:ArchiveClassesAtExit="$ARCHIVE" -jar "$JAR" cdsTraining > /dev/null 2>&1
+
+# Prints the average wall time of a run in milliseconds
+run_timed() {
+  local seconds
+  TIMEFORMAT=%R
+  seconds=$( { time (
+    for ((i = 0; i < ITERATIONS; i++)); do
+      "$JAVA" "$@" > /dev/null 2>&1 || true
+    done
+  ) ; } 2>&1 )
+  echo "$seconds $ITERATIONS" | awk '{ printf "%d", $1 * 1000 / $2 }'
+}
+
+echo "Average time over $ITERATIONS runs:"
+printf ' - %-48s %s ms\n' "help, default:" "$(run_timed -jar "$JAR" help)"
+printf ' - %-48s %s ms\n' "help, appcds:" "$(run_timed -XX:SharedArchiveFile="$ARCHIVE" -jar "$JAR" help)"
+for WRITER in client-java http; do
+  printf ' - %-48s %s ms\n' "failing export, $WRITER writer, default:" "$(run_timed -jar "$JAR" "${RUN_ARGS[@]}" secretWriter="$WRITER")"
+  printf ' - %-48s %s ms\n' "failing export, $WRITER writer, appcds:" "$(run_timed -XX:SharedArchiveFile="$ARCHIVE" -jar "$JAR" "${RUN_ARGS[@]}" secretWriter="$WRITER")"
+done